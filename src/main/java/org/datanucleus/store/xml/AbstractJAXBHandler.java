@@ -17,24 +17,59 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.xml;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.util.NucleusLogger;
 import org.w3c.dom.Node;
 
 /**
  * Abstract base for all JAXBHandlers so that any concrete implementation only needs to implement the getJAXBContext method.
+ * Any JAXBContext created is cached, keyed by the classes and ClassLoaderResolver that it was created for, and is reused
+ * until {@link #clearCache()} is called (when new metadata is loaded).
+ * Each cached context also has a bounded pool of Marshallers and Unmarshallers, so that these are configured once and
+ * reused rather than created for every object. The size of the pool is controlled by the persistence property
+ * "datanucleus.xml.marshallerPoolSize".
  */
 public abstract class AbstractJAXBHandler implements JAXBHandler
 {
     protected MetaDataManager mmgr;
 
+    /** Cache of JAXBContext (with its pools), keyed by the classes and ClassLoaderResolver it was created for. */
+    private final Map<ContextKey, PooledContext> contextCache = new ConcurrentHashMap<>();
+
+    /** Generation of the cache, incremented each time it is cleared. */
+    private final AtomicLong cacheGeneration = new AtomicLong();
+
+    /** Maximum number of Marshallers (and Unmarshallers) pooled per JAXBContext. */
+    private final int poolSize;
+
+    private final AtomicLong marshallerPoolHits = new AtomicLong();
+    private final AtomicLong marshallerPoolMisses = new AtomicLong();
+    private final AtomicLong unmarshallerPoolHits = new AtomicLong();
+    private final AtomicLong unmarshallerPoolMisses = new AtomicLong();
+
     public AbstractJAXBHandler(MetaDataManager mmgr)
     {
         this.mmgr = mmgr;
+
+        int size = 0;
+        if (mmgr.getNucleusContext() != null && mmgr.getNucleusContext().getConfiguration().hasProperty(XMLStoreManager.MARSHALLER_POOL_SIZE_PROPERTY))
+        {
+            size = mmgr.getNucleusContext().getConfiguration().getIntProperty(XMLStoreManager.MARSHALLER_POOL_SIZE_PROPERTY);
+        }
+        this.poolSize = (size > 0 ? size : Runtime.getRuntime().availableProcessors());
     }
 
     /**
@@ -46,15 +81,81 @@ public abstract class AbstractJAXBHandler implements JAXBHandler
      */
     protected abstract JAXBContext getJAXBContext(Class[] classes, ClassLoaderResolver clr) throws JAXBException;
 
+    /**
+     * Accessor for the JAXBContext for the supplied classes, using the cached context where available, otherwise creating
+     * it via {@link #getJAXBContext(Class[], ClassLoaderResolver)} and caching it.
+     * @param classes The classes to handle
+     * @param clr ClassLoader resolver
+     * @return The JAXBContext
+     * @throws JAXBException Thrown if an error occurs
+     */
+    protected JAXBContext getCachedJAXBContext(Class[] classes, ClassLoaderResolver clr) throws JAXBException
+    {
+        return getPooledContext(classes, clr).context;
+    }
+
+    private PooledContext getPooledContext(Class[] classes, ClassLoaderResolver clr) throws JAXBException
+    {
+        ContextKey key = new ContextKey(classes, clr);
+        PooledContext pooledCtx = contextCache.get(key);
+        if (pooledCtx == null)
+        {
+            long generation = cacheGeneration.get();
+            pooledCtx = new PooledContext(getJAXBContext(classes, clr), poolSize);
+            PooledContext existing = contextCache.putIfAbsent(key, pooledCtx);
+            if (existing != null)
+            {
+                pooledCtx = existing;
+            }
+            else if (generation != cacheGeneration.get())
+            {
+                // Cache was cleared while we were creating this context, so it may be based on stale metadata
+                contextCache.remove(key, pooledCtx);
+            }
+        }
+        return pooledCtx;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.xml.JAXBHandler#clearCache()
+     */
+    @Override
+    public void clearCache()
+    {
+        cacheGeneration.incrementAndGet();
+        if (!contextCache.isEmpty())
+        {
+            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE.debug("Clearing cache of " + contextCache.size() + " JAXBContext(s)");
+            }
+            contextCache.clear();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.xml.JAXBHandler#marshall(java.lang.Object, org.w3c.dom.Node, org.datanucleus.ClassLoaderResolver)
      */
     @Override
     public void marshall(Object obj, Node node, ClassLoaderResolver clr) throws JAXBException
     {
-        Marshaller marshaller = getJAXBContext(new Class[]{obj.getClass()}, clr).createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        PooledContext pooledCtx = getPooledContext(new Class[]{obj.getClass()}, clr);
+        Marshaller marshaller = pooledCtx.marshallers.poll();
+        if (marshaller != null)
+        {
+            marshallerPoolHits.incrementAndGet();
+        }
+        else
+        {
+            marshallerPoolMisses.incrementAndGet();
+            marshaller = pooledCtx.context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        }
+
         marshaller.marshal(obj, node);
+
+        // Only return to the pool when successful, so we never reuse one left in an unknown state
+        pooledCtx.marshallers.offer(marshaller);
     }
 
     /* (non-Javadoc)
@@ -63,6 +164,122 @@ public abstract class AbstractJAXBHandler implements JAXBHandler
     @Override
     public Object unmarshall(Class cls, Node node, ClassLoaderResolver clr) throws JAXBException
     {
-        return getJAXBContext(new Class[] {cls}, clr).createUnmarshaller().unmarshal(node);
+        PooledContext pooledCtx = getPooledContext(new Class[] {cls}, clr);
+        Unmarshaller unmarshaller = pooledCtx.unmarshallers.poll();
+        if (unmarshaller != null)
+        {
+            unmarshallerPoolHits.incrementAndGet();
+        }
+        else
+        {
+            unmarshallerPoolMisses.incrementAndGet();
+            unmarshaller = pooledCtx.context.createUnmarshaller();
+        }
+
+        Object obj = unmarshaller.unmarshal(node);
+
+        // Only return to the pool when successful, so we never reuse one left in an unknown state
+        pooledCtx.unmarshallers.offer(unmarshaller);
+        return obj;
+    }
+
+    /**
+     * Accessor for the number of marshall operations that used a pooled Marshaller.
+     * @return Number of pool hits
+     */
+    public long getMarshallerPoolHits()
+    {
+        return marshallerPoolHits.get();
+    }
+
+    /**
+     * Accessor for the number of marshall operations that had to create a Marshaller.
+     * @return Number of pool misses
+     */
+    public long getMarshallerPoolMisses()
+    {
+        return marshallerPoolMisses.get();
+    }
+
+    /**
+     * Accessor for the number of unmarshall operations that used a pooled Unmarshaller.
+     * @return Number of pool hits
+     */
+    public long getUnmarshallerPoolHits()
+    {
+        return unmarshallerPoolHits.get();
+    }
+
+    /**
+     * Accessor for the number of unmarshall operations that had to create an Unmarshaller.
+     * @return Number of pool misses
+     */
+    public long getUnmarshallerPoolMisses()
+    {
+        return unmarshallerPoolMisses.get();
+    }
+
+    /**
+     * Accessor for the maximum number of Marshallers (and Unmarshallers) pooled per JAXBContext.
+     * @return The pool size
+     */
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /**
+     * Cached JAXBContext together with its pools of Marshallers and Unmarshallers.
+     */
+    private static class PooledContext
+    {
+        final JAXBContext context;
+        final BlockingQueue<Marshaller> marshallers;
+        final BlockingQueue<Unmarshaller> unmarshallers;
+
+        PooledContext(JAXBContext context, int poolSize)
+        {
+            this.context = context;
+            this.marshallers = new ArrayBlockingQueue<>(poolSize);
+            this.unmarshallers = new ArrayBlockingQueue<>(poolSize);
+        }
+    }
+
+    /**
+     * Key for the JAXBContext cache. Classes are compared by identity, as is the ClassLoaderResolver.
+     */
+    private static class ContextKey
+    {
+        final Class[] classes;
+        final ClassLoaderResolver clr;
+        final int hashCode;
+
+        ContextKey(Class[] classes, ClassLoaderResolver clr)
+        {
+            this.classes = classes;
+            this.clr = clr;
+            this.hashCode = 31 * Arrays.hashCode(classes) + System.identityHashCode(clr);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof ContextKey))
+            {
+                return false;
+            }
+            ContextKey other = (ContextKey)obj;
+            return clr == other.clr && Arrays.equals(classes, other.classes);
+        }
     }
-}
\ No newline at end of file
+}
@@ -18,14 +18,22 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.xml;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -36,25 +44,44 @@ import javax.xml.transform.stream.StreamResult;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.PropertyNames;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.AbstractConnectionFactory;
 import org.datanucleus.store.connection.AbstractManagedConnection;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.util.NucleusLogger;
 import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
+import org.w3c.dom.Element;
 
 /**
  * Implementation of a ConnectionFactory for XML.
- * The connectionUrl defines the XML filename to be used. Also support persistence property "datanucleus.xml.indentSize" to control
- * the indenting used in the XML file.
+ * The connectionUrl defines the XML filename to be used ("xml:file:{filename}"), or a directory ("xml:dir:{path}") in which
+ * case each class is stored in its own file in that directory (with classes that share the same "xpath"/"schema" sharing a file).
+ * With a directory, a class with the extension "partitions" has its objects split across that number of files, by a hash of the
+ * primary key, so that finding an object only needs one partition to be loaded.
+ * Also support persistence property "datanucleus.xml.indentSize" to control
+ * the indenting used in the XML file (0 meaning no formatting), and "datanucleus.xml.writer" to select how the file is written;
+ * "stax" (default) streams the document using an {@link XMLDocumentWriter}, and "transformer" uses a JAXP Transformer.
+ * The parsed document is obtained from the store-level {@link XMLDocumentCache} so that the file is only parsed again when it
+ * has changed. With a directory, the file for a class is only loaded when that class is first accessed by the connection.
+ * The connection tracks the objects inserted/deleted through it (keeping the {@link XMLDocumentIndex} of the document up
+ * to date), and on commit only writes the files that were changed. When persistence property "datanucleus.xml.journal" is set
+ * the changes are appended to an {@link XMLJournal} rather than rewriting the whole file, with the file only rewritten when
+ * the journal exceeds "datanucleus.xml.journal.compactionThreshold" bytes.
  */
 public class ConnectionFactoryImpl extends AbstractConnectionFactory
 {
+    /** Name of the XML file when storing all classes in one file. */
     String filename = null;
 
+    /** Directory of the XML files when storing each class in its own file. */
+    File directory = null;
+
     int indent = 4;
 
+    /** Writer for the XML file, or null when using a JAXP Transformer. */
+    XMLDocumentWriter documentWriter = null;
+
     /**
      * Constructor.
      * @param storeMgr Store Manager
@@ -64,7 +91,7 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
     {
         super(storeMgr, resourceType);
 
-        // "xml:file:{filename}"
+        // "xml:file:{filename}" or "xml:dir:{path}"
         String url = storeMgr.getConnectionURL();
         if (url == null)
         {
@@ -75,16 +102,118 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
             throw new NucleusException("invalid URL: "+url);
         }
 
-        // Split the URL into filename
+        // Split the URL into filename/directory
         String str = url.substring(4); // Omit the prefix
-        if (str.indexOf("file:") != 0)
+        if (str.indexOf("file:") == 0)
+        {
+            filename = str.substring(5);
+        }
+        else if (str.indexOf("dir:") == 0)
+        {
+            directory = new File(str.substring(4));
+            if (!directory.exists() && !directory.mkdirs())
+            {
+                throw new NucleusException("Unable to create directory for URL: " + url);
+            }
+        }
+        else
         {
             throw new NucleusException("invalid URL: "+url);
         }
 
-        filename = str.substring(5);
-
         indent = storeMgr.getIntProperty(XMLStoreManager.XML_INDENT_SIZE_PROPERTY);
+
+        String writerName = storeMgr.getStringProperty(XMLStoreManager.XML_WRITER_PROPERTY);
+        if (writerName == null || writerName.equalsIgnoreCase("stax"))
+        {
+            documentWriter = new XMLDocumentWriter(indent);
+        }
+        else if (!writerName.equalsIgnoreCase("transformer"))
+        {
+            throw new NucleusException("Invalid value for persistence property '" + XMLStoreManager.XML_WRITER_PROPERTY + "' : " + writerName);
+        }
+    }
+
+    /**
+     * Accessor for the XML file that stores the objects of the specified class. When using a directory this is a file named
+     * after the XPath of the class (e.g "/root/people" is "root_people.xml"), or after the class name when it has no XPath.
+     * When the class is partitioned this is the file name that the partition files are named after (e.g "root_people.0.xml").
+     * @param cmd Metadata for the class
+     * @return The file
+     */
+    public File getFileForClass(AbstractClassMetaData cmd)
+    {
+        if (directory == null)
+        {
+            return new File(filename);
+        }
+
+        String xpath = XMLUtils.getXPathForClass(cmd);
+        String name = (xpath != null ? xpath : cmd.getFullClassName());
+        while (name.startsWith("/"))
+        {
+            name = name.substring(1);
+        }
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".xml");
+    }
+
+    /**
+     * Accessor for the number of files (partitions) that the objects of the specified class are split across, using the
+     * class extension "partitions". Partitioning is only used when storing the classes in a directory.
+     * @param cmd Metadata for the class
+     * @return The number of partitions (1 when not partitioned)
+     */
+    public int getNumberOfPartitions(AbstractClassMetaData cmd)
+    {
+        if (directory == null || !cmd.hasExtension(XMLUtils.EXTENSION_PARTITIONS))
+        {
+            return 1;
+        }
+        return Integer.parseInt(cmd.getValueForExtension(XMLUtils.EXTENSION_PARTITIONS));
+    }
+
+    /**
+     * Accessor for the XML file that stores the object of the specified class with the specified primary key value(s).
+     * When the class is partitioned the partition is chosen using a hash of the key values.
+     * @param cmd Metadata for the class
+     * @param keyValues Values of the primary key element(s)
+     * @return The file
+     */
+    public File getFileForObject(AbstractClassMetaData cmd, String[] keyValues)
+    {
+        int numPartitions = getNumberOfPartitions(cmd);
+        if (numPartitions == 1)
+        {
+            return getFileForClass(cmd);
+        }
+        return getFileForPartition(cmd, Math.floorMod(Arrays.hashCode(keyValues), numPartitions));
+    }
+
+    /**
+     * Accessor for all XML files that store objects of the specified class (one per partition).
+     * @param cmd Metadata for the class
+     * @return The files
+     */
+    public File[] getFilesForClass(AbstractClassMetaData cmd)
+    {
+        int numPartitions = getNumberOfPartitions(cmd);
+        if (numPartitions == 1)
+        {
+            return new File[] {getFileForClass(cmd)};
+        }
+
+        File[] files = new File[numPartitions];
+        for (int i = 0; i < numPartitions; i++)
+        {
+            files[i] = getFileForPartition(cmd, i);
+        }
+        return files;
+    }
+
+    private File getFileForPartition(AbstractClassMetaData cmd, int partition)
+    {
+        String name = getFileForClass(cmd).getName();
+        return new File(directory, name.substring(0, name.length() - 4) + "." + partition + ".xml");
     }
 
     /**
@@ -101,65 +230,118 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
 
     public class ManagedConnectionImpl extends AbstractManagedConnection
     {
-        /** The XML File. */
-        File file;
-        
+        /** The XML files in use by this connection, keyed by the file. */
+        Map<File, OpenFile> openFiles = new LinkedHashMap<>();
+
         public ManagedConnectionImpl()
         {
         }
 
+        /**
+         * Accessor for the connection. When using a single XML file this is its document, otherwise it is the directory of the
+         * XML files; use {@link #getDocumentForObject(AbstractClassMetaData, String[])} or
+         * {@link #getDocumentsForClass(AbstractClassMetaData)} to obtain the documents for a class.
+         * @return The connection
+         */
         public Object getConnection()
         {
-            if (conn == null)
+            if (directory != null)
             {
-                try
+                conn = directory;
+                return conn;
+            }
+            return getDocument(new File(filename));
+        }
+
+        /**
+         * Accessor for the document holding the object of the specified class with the specified primary key value(s), loading
+         * it if not yet in use by this connection.
+         * @param cmd Metadata for the class
+         * @param keyValues Values of the primary key element(s)
+         * @return The document
+         */
+        public Document getDocumentForObject(AbstractClassMetaData cmd, String[] keyValues)
+        {
+            return getDocument(getFileForObject(cmd, keyValues));
+        }
+
+        /**
+         * Accessor for the distinct documents that could hold the object with the specified primary key value(s) when it could
+         * be of any of the specified classes, loading them if not yet in use by this connection.
+         * @param cmds Metadata for the possible classes of the object
+         * @param keyValues Values of the primary key element(s)
+         * @return The documents
+         */
+        public Collection<Document> getDocumentsForObject(Collection<AbstractClassMetaData> cmds, String[] keyValues)
+        {
+            if (directory == null)
+            {
+                return Collections.singletonList(getDocument(new File(filename)));
+            }
+
+            List<Document> docs = new ArrayList<>(1);
+            for (AbstractClassMetaData cmd : cmds)
+            {
+                Document doc = getDocumentForObject(cmd, keyValues);
+                if (!docs.contains(doc))
                 {
-                    file = new File(filename);
-                    if (!file.exists())
-                    {
-                        file.createNewFile();
-                        conn = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-                    }
-                    else
-                    {
-                        try
-                        {
-                            // TODO This can cause System.out messages like "[Fatal Error] test.xml:3:1: Premature end of file." if not valid XML
-                            // e.g a single line file like "<?xml version="1.0" encoding="UTF-8" standalone="no"?>"
-                            conn = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
-                        }
-                        catch (SAXException ex)
-                        {
-                            conn = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-                        }
-                    }
+                    docs.add(doc);
                 }
-                catch (IOException e)
+            }
+            return docs;
+        }
+
+        /**
+         * Accessor for the documents holding the objects of the specified class (one per partition), loading them if not yet
+         * in use by this connection.
+         * @param cmd Metadata for the class
+         * @return The documents
+         */
+        public Document[] getDocumentsForClass(AbstractClassMetaData cmd)
+        {
+            File[] files = getFilesForClass(cmd);
+            Document[] docs = new Document[files.length];
+            for (int i = 0; i < files.length; i++)
+            {
+                docs[i] = getDocument(files[i]);
+            }
+            return docs;
+        }
+
+        private Document getDocument(File file)
+        {
+            OpenFile openFile = openFiles.get(file);
+            if (openFile == null)
+            {
+                try
                 {
-                    NucleusLogger.CONNECTION.error("Exception getting connection to XML file", e);
-                    throw new NucleusException(e.getMessage(), e);
+                    XMLJournal journal = ((XMLStoreManager)storeMgr).getJournal(file);
+                    Document doc = ((XMLStoreManager)storeMgr).getDocumentCache().checkOut(file, journal);
+                    openFile = new OpenFile(file, journal, doc);
+                    openFiles.put(file, openFile);
                 }
-                catch (ParserConfigurationException e)
+                catch (IOException e)
                 {
                     NucleusLogger.CONNECTION.error("Exception getting connection to XML file", e);
                     throw new NucleusException(e.getMessage(), e);
                 }
             }
-            return conn;
+            if (conn == null)
+            {
+                conn = (directory != null ? directory : openFile.doc);
+            }
+            return openFile.doc;
         }
 
         public void release()
         {
-            if (commitOnRelease)
+            if (commitOnRelease && !(closeOnRelease && useCount == 1))
             {
+                // Not closing on this release, so write any changes now. When closing, close() writes them after notifying
+                // the listeners (e.g query results that need to be read before the documents are returned to the cache)
                 try
                 {
-                    DOMSource source = new DOMSource((Document)conn);
-                    FileOutputStream os = new FileOutputStream(file);
-                    StreamResult result = new StreamResult(os);
-                    Transformer t = getTransformer();
-                    t.transform(source, result);
-                    os.close();
+                    writeDocuments();
                     conn = null;
                 }
                 catch (Exception e)
@@ -186,12 +368,7 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
             {
                 try
                 {
-                    DOMSource source = new DOMSource((Document)conn);
-                    FileOutputStream os = new FileOutputStream(file);
-                    StreamResult result = new StreamResult(os);
-                    Transformer t = getTransformer();
-                    t.transform(source, result);
-                    os.close();
+                    writeDocuments();
                 }
                 catch (Exception e)
                 {
@@ -209,6 +386,171 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
             }
         }
 
+        /**
+         * Method to register that the object represented by the supplied element has just been added to its document.
+         * @param element Element for the object (in its container)
+         * @param keyNames Names of the primary key elements of the object
+         */
+        public void recordInsert(Element element, String[] keyNames)
+        {
+            OpenFile openFile = getOpenFile(element.getOwnerDocument());
+            openFile.modified = true;
+            XMLDocumentIndex.getIndex(openFile.doc).add(element, keyNames);
+            if (openFile.journal != null)
+            {
+                openFile.journalRecords.add(XMLJournal.Record.newInsert(element, keyNames));
+            }
+        }
+
+        /**
+         * Method to register that the object represented by the supplied element has just been changed in place (without
+         * changing its primary key).
+         * @param element Element for the object (in its container)
+         * @param keyNames Names of the primary key elements of the object
+         */
+        public void recordUpdate(Element element, String[] keyNames)
+        {
+            OpenFile openFile = getOpenFile(element.getOwnerDocument());
+            openFile.modified = true;
+            if (openFile.journal != null)
+            {
+                openFile.journalRecords.add(XMLJournal.Record.newUpdate(element, keyNames));
+            }
+        }
+
+        /**
+         * Method to register that the object represented by the supplied element is about to be removed from its document.
+         * @param element Element for the object (still in its container)
+         * @param keyNames Names of the primary key elements of the object
+         */
+        public void recordDelete(Element element, String[] keyNames)
+        {
+            OpenFile openFile = getOpenFile(element.getOwnerDocument());
+            openFile.modified = true;
+            XMLDocumentIndex.getIndex(openFile.doc).remove(element, keyNames);
+            if (openFile.journal != null)
+            {
+                openFile.journalRecords.add(XMLJournal.Record.newDelete(element, keyNames));
+            }
+        }
+
+        private OpenFile getOpenFile(Document doc)
+        {
+            for (OpenFile openFile : openFiles.values())
+            {
+                if (openFile.doc == doc)
+                {
+                    return openFile;
+                }
+            }
+            throw new NucleusException("Document is not in use by this connection");
+        }
+
+        /**
+         * Method to write any changes of this connection to the XML files (or their journals), and return the documents to the
+         * document cache. Files are written in the order they were first used; if a write fails then the remaining changed
+         * files are not written, and their documents are discarded so that they are parsed again from the unchanged files.
+         * @throws Exception if an error occurs in the write
+         */
+        private void writeDocuments() throws Exception
+        {
+            XMLDocumentCache docCache = ((XMLStoreManager)storeMgr).getDocumentCache();
+            Exception failure = null;
+            try
+            {
+                for (OpenFile openFile : openFiles.values())
+                {
+                    if (!openFile.modified)
+                    {
+                        docCache.checkIn(openFile.file, openFile.journal, openFile.doc, false);
+                        continue;
+                    }
+                    if (failure != null)
+                    {
+                        docCache.invalidate(openFile.file);
+                        continue;
+                    }
+
+                    try
+                    {
+                        if (openFile.journal != null)
+                        {
+                            openFile.journal.append(openFile.journalRecords);
+                            if (openFile.journal.needsCompaction())
+                            {
+                                compact(openFile);
+                            }
+                        }
+                        else
+                        {
+                            writeToFile(openFile.doc, openFile.file);
+                        }
+                        docCache.checkIn(openFile.file, openFile.journal, openFile.doc, true);
+                    }
+                    catch (Exception e)
+                    {
+                        docCache.invalidate(openFile.file);
+                        failure = e;
+                    }
+                }
+            }
+            finally
+            {
+                openFiles.clear();
+            }
+
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+
+        /**
+         * Method to rewrite the XML file with the current document, and remove the journal since it is no longer needed.
+         * The file is written to a temporary file first and then moved into place, so the XML file is never partially written.
+         * @param openFile The XML file
+         * @throws Exception if an error occurs in the write
+         */
+        private void compact(OpenFile openFile) throws Exception
+        {
+            if (NucleusLogger.CONNECTION.isDebugEnabled())
+            {
+                NucleusLogger.CONNECTION.debug("XML journal " + openFile.journal.getFile() + " has exceeded its threshold so compacting into " + openFile.file);
+            }
+
+            File tmpFile = new File(openFile.file.getPath() + ".tmp");
+            writeToFile(openFile.doc, tmpFile);
+            Files.move(tmpFile.toPath(), openFile.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Journal records are idempotent so a failure before this point just means they are replayed onto the compacted file
+            openFile.journal.delete();
+        }
+
+        /**
+         * Method to write a document to the specified file, using the configured writer.
+         * @param doc The document
+         * @param target The file to write to
+         * @throws Exception if an error occurs in the write
+         */
+        private void writeToFile(Document doc, File target) throws Exception
+        {
+            if (documentWriter != null)
+            {
+                documentWriter.write(doc, target);
+                return;
+            }
+
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(target));
+            try
+            {
+                getTransformer().transform(new DOMSource(doc), new StreamResult(os));
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+
         private Transformer getTransformer() throws TransformerConfigurationException
         {
             TransformerFactory tf = TransformerFactory.newInstance();
@@ -231,4 +573,30 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
             return null;
         }
     }
+
+    /**
+     * An XML file in use by a connection, with its document and the changes made to it.
+     */
+    static class OpenFile
+    {
+        final File file;
+
+        /** Journal for the XML file (if journalling). */
+        final XMLJournal journal;
+
+        final Document doc;
+
+        /** Whether the document has been modified using this connection since it was last written. */
+        boolean modified = false;
+
+        /** Records of the changes made using this connection since it was last written (if journalling). */
+        List<XMLJournal.Record> journalRecords = new ArrayList<>();
+
+        OpenFile(File file, XMLJournal journal, Document doc)
+        {
+            this.file = file;
+            this.journal = journal;
+            this.doc = doc;
+        }
+    }
 }
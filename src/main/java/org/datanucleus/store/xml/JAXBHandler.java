@@ -47,4 +47,12 @@ public interface JAXBHandler
      */
     public Object unmarshall(Class cls, Node node, ClassLoaderResolver clr) 
     throws JAXBException;
+
+    /**
+     * Method to clear any state cached by this handler (e.g JAXBContext) since the metadata it was derived from
+     * may have changed. Default implementation does nothing.
+     */
+    public default void clearCache()
+    {
+    }
 }
\ No newline at end of file
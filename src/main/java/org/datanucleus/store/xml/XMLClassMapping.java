@@ -0,0 +1,150 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.FieldRole;
+
+/**
+ * Immutable description of how a class is mapped to XML, resolved once from its metadata : the XPath of its container,
+ * the element name of its objects, the element names of its primary key, and the element name of each of its members
+ * for each {@link FieldRole}. This saves the extension lookups and name defaulting of {@link XMLUtils} on every access.
+ * <p>
+ * Mappings are built when the metadata for a class is loaded (see {@link XMLMetaDataListener}), otherwise on first use,
+ * and are held against the class metadata (weakly, so released when the metadata is). A mapping holds no reference to
+ * the metadata itself.
+ * </p>
+ */
+public class XMLClassMapping
+{
+    /** Mappings keyed by the class metadata. */
+    private static final Map<AbstractClassMetaData, XMLClassMapping> mappings = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final FieldRole[] ROLES = FieldRole.values();
+
+    private final String xpath;
+
+    private final String elementName;
+
+    private final String[] pkElementNames;
+
+    /** Element name of each member of the class, indexed by absolute member position and then by FieldRole ordinal. */
+    private final String[][] memberElementNames;
+
+    private XMLClassMapping(AbstractClassMetaData cmd)
+    {
+        xpath = XMLUtils.resolveXPathForClass(cmd);
+        elementName = XMLUtils.resolveElementNameForClass(cmd);
+
+        int numMembers = cmd.getMemberCount();
+        memberElementNames = new String[numMembers][];
+        for (int i = 0; i < numMembers; i++)
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(i);
+            if (mmd != null)
+            {
+                String[] names = new String[ROLES.length];
+                for (FieldRole role : ROLES)
+                {
+                    names[role.ordinal()] = XMLUtils.resolveElementNameForMember(mmd, role);
+                }
+                memberElementNames[i] = names;
+            }
+        }
+
+        int[] pkPositions = cmd.getPKMemberPositions();
+        pkElementNames = new String[pkPositions != null ? pkPositions.length : 0];
+        for (int i = 0; i < pkElementNames.length; i++)
+        {
+            pkElementNames[i] = memberElementNames[pkPositions[i]][FieldRole.ROLE_FIELD.ordinal()];
+        }
+    }
+
+    /**
+     * Accessor for the mapping of the specified class, building it if not yet present.
+     * @param cmd Metadata for the class
+     * @return The mapping
+     */
+    public static XMLClassMapping getMapping(AbstractClassMetaData cmd)
+    {
+        XMLClassMapping mapping = mappings.get(cmd);
+        if (mapping == null)
+        {
+            mapping = new XMLClassMapping(cmd);
+            mappings.put(cmd, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Method to (re)build the mapping of the specified class, for example when its metadata is loaded.
+     * @param cmd Metadata for the class
+     */
+    public static void load(AbstractClassMetaData cmd)
+    {
+        mappings.put(cmd, new XMLClassMapping(cmd));
+    }
+
+    /**
+     * Accessor for the XPath of the element containing the objects of the class.
+     * @return The XPath (or null if not defined, meaning the root element)
+     */
+    public String getXPath()
+    {
+        return xpath;
+    }
+
+    /**
+     * Accessor for the name of the element for objects of the class.
+     * @return The element name
+     */
+    public String getElementName()
+    {
+        return elementName;
+    }
+
+    /**
+     * Accessor for the names of the elements holding the primary key value(s) of objects of the class. The returned array
+     * is shared, so must not be modified.
+     * @return The primary key element names
+     */
+    public String[] getPrimaryKeyElementNames()
+    {
+        return pkElementNames;
+    }
+
+    /**
+     * Accessor for the element name of the member at the specified absolute position in the class, for the specified role.
+     * @param absoluteFieldNumber Absolute position of the member
+     * @param role Role within the member
+     * @return The element name (or null if the class has no member at that position)
+     */
+    public String getElementNameForMember(int absoluteFieldNumber, FieldRole role)
+    {
+        if (absoluteFieldNumber < 0 || absoluteFieldNumber >= memberElementNames.length || memberElementNames[absoluteFieldNumber] == null)
+        {
+            return null;
+        }
+        return memberElementNames[absoluteFieldNumber][role.ordinal()];
+    }
+}
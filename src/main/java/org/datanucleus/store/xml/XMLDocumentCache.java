@@ -0,0 +1,355 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.datanucleus.util.NucleusLogger;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Store-level cache of parsed XML documents, so that the XML file is only parsed when it has changed.
+ * A connection "checks out" the document for a file, and "checks it in" when it has finished with it (writing it
+ * back to the file if required). The cached document is only handed out to one connection at a time; any other
+ * connection requesting the same file meanwhile gets its own freshly parsed document.
+ * <p>
+ * The cached document is validated against the file on each check out using the last-modified time and size of the
+ * file, and optionally a CRC32 checksum of its contents, so that any change made outside of this process causes
+ * a re-parse.
+ * </p>
+ * <p>
+ * Where the file has an {@link XMLJournal} the journal is replayed onto the document after parsing, and the journal
+ * file forms part of the validation of the cached document.
+ * </p>
+ */
+public class XMLDocumentCache
+{
+    /** Whether to cache documents at all. When false every check out parses the file. */
+    private final boolean enabled;
+
+    /** Whether to validate the cached document with a checksum of the file contents. */
+    private final boolean useChecksum;
+
+    private final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+
+    /** Cached documents, keyed by the file. */
+    private final Map<File, Entry> entries = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param enabled Whether to cache parsed documents
+     * @param useChecksum Whether to validate a cached document against a checksum of the file (as well as modified time and size)
+     */
+    public XMLDocumentCache(boolean enabled, boolean useChecksum)
+    {
+        this.enabled = enabled;
+        this.useChecksum = useChecksum;
+    }
+
+    /**
+     * Method to obtain the document for the specified file, creating the file if it doesn't exist.
+     * Returns the cached document if it is still valid and not in use by another connection, otherwise parses the file.
+     * @param file The XML file
+     * @param journal Journal for the file (or null if not journalled)
+     * @return The document
+     * @throws IOException if an error occurs reading the file
+     */
+    public Document checkOut(File file, XMLJournal journal) throws IOException
+    {
+        if (!file.exists())
+        {
+            file.createNewFile();
+        }
+
+        if (enabled)
+        {
+            DocumentStamp stamp = getStamp(file, journal);
+            synchronized (this)
+            {
+                Entry entry = entries.get(file);
+                if (entry != null && !entry.checkedOut)
+                {
+                    if (entry.stamp.equals(stamp))
+                    {
+                        entry.checkedOut = true;
+                        return entry.doc;
+                    }
+
+                    if (NucleusLogger.CONNECTION.isDebugEnabled())
+                    {
+                        NucleusLogger.CONNECTION.debug("XML file " + file + " has been changed externally so will be parsed again");
+                    }
+                    entries.remove(file);
+                }
+            }
+
+            Document doc = parse(file, journal);
+            synchronized (this)
+            {
+                if (!entries.containsKey(file))
+                {
+                    Entry entry = new Entry(doc, stamp);
+                    entry.checkedOut = true;
+                    entries.put(file, entry);
+                }
+            }
+            return doc;
+        }
+
+        return parse(file, journal);
+    }
+
+    /**
+     * Method to return the document for the specified file after use.
+     * If the document was written to the file then it becomes the cached document for that file since it now represents
+     * the file contents.
+     * @param file The XML file
+     * @param journal Journal for the file (or null if not journalled)
+     * @param doc The document previously checked out
+     * @param written Whether the document has just been written to the file (or its journal)
+     */
+    public void checkIn(File file, XMLJournal journal, Document doc, boolean written)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        DocumentStamp stamp = null;
+        if (written)
+        {
+            try
+            {
+                stamp = getStamp(file, journal);
+            }
+            catch (IOException ioe)
+            {
+                NucleusLogger.CONNECTION.warn("Unable to read attributes of XML file " + file + " so not caching its document", ioe);
+                invalidate(file);
+                return;
+            }
+        }
+
+        synchronized (this)
+        {
+            Entry entry = entries.get(file);
+            if (written)
+            {
+                // This document now represents the file, so replaces any cached document (which is discarded on its check in)
+                entries.put(file, new Entry(doc, stamp));
+            }
+            else if (entry != null && entry.doc == doc)
+            {
+                entry.checkedOut = false;
+            }
+        }
+    }
+
+    /**
+     * Method to remove any cached document for the specified file, for example after a failed write.
+     * @param file The XML file
+     */
+    public synchronized void invalidate(File file)
+    {
+        entries.remove(file);
+    }
+
+    /**
+     * Method to clear all cached documents.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Method to parse the specified file into a document, replaying any journal onto it.
+     * @param file The XML file
+     * @param journal Journal for the file (or null if not journalled)
+     * @return The document
+     * @throws IOException if an error occurs reading the file
+     */
+    protected Document parse(File file, XMLJournal journal) throws IOException
+    {
+        Document doc = parse(file);
+        if (journal != null)
+        {
+            journal.replay(doc);
+        }
+        return doc;
+    }
+
+    /**
+     * Method to parse the specified file into a document. If the file is not valid XML (e.g empty) then returns a new document.
+     * @param file The XML file
+     * @return The document
+     * @throws IOException if an error occurs reading the file
+     */
+    protected Document parse(File file) throws IOException
+    {
+        DocumentBuilder builder = null;
+        try
+        {
+            synchronized (builderFactory)
+            {
+                builder = builderFactory.newDocumentBuilder();
+            }
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        if (file.length() == 0)
+        {
+            return builder.newDocument();
+        }
+
+        try
+        {
+            // TODO This can cause System.out messages like "[Fatal Error] test.xml:3:1: Premature end of file." if not valid XML
+            // e.g a single line file like "<?xml version="1.0" encoding="UTF-8" standalone="no"?>"
+            return builder.parse(file);
+        }
+        catch (SAXException ex)
+        {
+            return builder.newDocument();
+        }
+    }
+
+    /**
+     * Method to obtain the current stamp of the specified file, including its journal (if any).
+     * @param file The file
+     * @param journal Journal for the file (or null if not journalled)
+     * @return The stamp
+     * @throws IOException if an error occurs reading the file
+     */
+    protected DocumentStamp getStamp(File file, XMLJournal journal) throws IOException
+    {
+        DocumentStamp stamp = getStamp(file);
+        if (journal != null && journal.getFile().exists())
+        {
+            stamp.journalStamp = getStamp(journal.getFile());
+        }
+        return stamp;
+    }
+
+    /**
+     * Method to obtain the current stamp of the specified file.
+     * @param file The file
+     * @return The stamp
+     * @throws IOException if an error occurs reading the file
+     */
+    protected DocumentStamp getStamp(File file) throws IOException
+    {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long checksum = 0;
+        if (useChecksum)
+        {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                while (channel.read(buffer) >= 0)
+                {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+            }
+            checksum = crc.getValue();
+        }
+        return new DocumentStamp(attrs.lastModifiedTime(), attrs.size(), checksum);
+    }
+
+    /**
+     * Representation of the state of a file at the time its document was cached.
+     */
+    static class DocumentStamp
+    {
+        final FileTime lastModified;
+        final long size;
+        final long checksum;
+
+        /** Stamp of the journal of this file (if any). */
+        DocumentStamp journalStamp;
+
+        DocumentStamp(FileTime lastModified, long size, long checksum)
+        {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return lastModified.hashCode() ^ (int)size ^ (int)checksum;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof DocumentStamp))
+            {
+                return false;
+            }
+            DocumentStamp other = (DocumentStamp)obj;
+            if (journalStamp == null ? other.journalStamp != null : !journalStamp.equals(other.journalStamp))
+            {
+                return false;
+            }
+            return size == other.size && checksum == other.checksum && lastModified.equals(other.lastModified);
+        }
+    }
+
+    /**
+     * Cached document for a file.
+     */
+    static class Entry
+    {
+        final Document doc;
+        final DocumentStamp stamp;
+        boolean checkedOut = false;
+
+        Entry(Document doc, DocumentStamp stamp)
+        {
+            this.doc = doc;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * In-memory index of the objects in a document, from primary key value(s) to the element for the object.
+ * The index is held against the document itself (as DOM user data), so it lives as long as the parsed document does and
+ * a freshly parsed document always starts with an empty index.
+ * <p>
+ * The index for the objects of a class is built lazily on the first lookup, by scanning the child elements of the container
+ * element with the element name of the class. It is then maintained as objects are inserted and deleted through
+ * {@link #add(Element, String[])} and {@link #remove(Element, String[])}. Any further objects with the same primary key
+ * value(s) are recorded with the key, so that removing the object found by a lookup makes the next of them visible (as
+ * with a scan of the container) without a rescan of the container.
+ * </p>
+ * <p>
+ * The container element of the objects of each class is also cached, so its XPath is only evaluated once per document
+ * (rather than on every insert and lookup).
+ * </p>
+ * <p>
+ * For polymorphic lookups there is also a {@link ClassIndex} per class (and its subclasses), from primary key value(s) to
+ * the element of the object of whichever class in that inheritance tree it is, together with a dispatch table from the
+ * container and element name of the element to the metadata of its concrete class. This is built lazily with one scan of
+ * each container used by the inheritance tree, and maintained along with the per-container indexes.
+ * </p>
+ */
+public class XMLDocumentIndex
+{
+    private static final String USER_DATA_KEY = XMLDocumentIndex.class.getName();
+
+    /** Separator used between the values of a composite key. */
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    /** Index of the objects, keyed by container element, and then by element name and primary key element names. */
+    private final Map<Node, Map<String, KeyIndex>> indexes = new IdentityHashMap<>();
+
+    /** Container element of the objects of classes, keyed by the XPath of the container. Null when not present in the document. */
+    private final Map<String, Node> containers = new HashMap<>();
+
+    /** Index of the objects of each inheritance tree, keyed by the name of the class the tree starts from. */
+    private final Map<String, ClassIndex> classIndexes = new HashMap<>();
+
+    /** The document that this indexes. */
+    private final Document doc;
+
+    private XMLDocumentIndex(Document doc)
+    {
+        this.doc = doc;
+    }
+
+    /**
+     * Accessor for the index for the specified document, creating it if not yet present.
+     * @param doc The document
+     * @return The index
+     */
+    public static XMLDocumentIndex getIndex(Document doc)
+    {
+        XMLDocumentIndex index = (XMLDocumentIndex)doc.getUserData(USER_DATA_KEY);
+        if (index == null)
+        {
+            index = new XMLDocumentIndex(doc);
+            doc.setUserData(USER_DATA_KEY, index, null);
+        }
+        return index;
+    }
+
+    /**
+     * Accessor for the (existing) element that contains the objects of the specified class.
+     * @param acmd Metadata for the class
+     * @return The container (or null if not present in the document)
+     * @throws XPathExpressionException if the XPath of the class is invalid
+     */
+    public Node getContainer(AbstractClassMetaData acmd) throws XPathExpressionException
+    {
+        String xpath = XMLUtils.getXPathForClass(acmd);
+        if (xpath == null)
+        {
+            return doc.getDocumentElement();
+        }
+
+        Node container = containers.get(xpath);
+        if (container == null ? !containers.containsKey(xpath) : !isInDocument(container))
+        {
+            container = (Node)XMLUtils.getXPathCache().evaluate(acmd, doc, XPathConstants.NODE);
+            containers.put(xpath, container);
+        }
+        return container;
+    }
+
+    /**
+     * Method to register that container elements have been added to the document, so that any container previously found
+     * not to be present is looked up again.
+     */
+    public void containersAdded()
+    {
+        containers.values().removeIf(Objects::isNull);
+    }
+
+    private boolean isInDocument(Node node)
+    {
+        Node parent = node.getParentNode();
+        while (parent != null && parent != doc)
+        {
+            parent = parent.getParentNode();
+        }
+        return parent == doc;
+    }
+
+    /**
+     * Method to find the element for the object with the specified primary key value(s).
+     * @param container The container element of the objects
+     * @param elementName Name of the element for objects of this class
+     * @param keyNames Names of the primary key elements
+     * @param keyValues Values of the primary key elements
+     * @return The element for the object (or null if not present)
+     */
+    public Element get(Node container, String elementName, String[] keyNames, String[] keyValues)
+    {
+        return getIndex(container, elementName, keyNames).get(getKey(keyValues));
+    }
+
+    /**
+     * Accessor for the index of the objects of the specified class and its subclasses in this document, building it if not
+     * yet present (or if further subclasses have been registered since it was built).
+     * @param cmds Metadata for the class to start from, followed by all of its (known) subclasses
+     * @return The index
+     * @throws XPathExpressionException if an error occurs finding the container of a class
+     */
+    public ClassIndex getClassIndex(List<AbstractClassMetaData> cmds) throws XPathExpressionException
+    {
+        String className = cmds.get(0).getFullClassName();
+        ClassIndex classIndex = classIndexes.get(className);
+        if (classIndex == null || classIndex.numClasses != cmds.size())
+        {
+            classIndex = new ClassIndex(doc, cmds);
+            classIndexes.put(className, classIndex);
+        }
+        return classIndex;
+    }
+
+    /**
+     * Method to register that the supplied element has been added to its container.
+     * @param element The element for the object
+     * @param keyNames Names of the primary key elements
+     */
+    public void add(Element element, String[] keyNames)
+    {
+        KeyIndex index = getIndexIfBuilt(element.getParentNode(), element.getNodeName(), keyNames);
+        if (index != null)
+        {
+            index.add(getKey(element, keyNames), element);
+        }
+        if (!classIndexes.isEmpty())
+        {
+            try
+            {
+                for (ClassIndex classIndex : classIndexes.values())
+                {
+                    classIndex.add(doc, element, keyNames);
+                }
+            }
+            catch (XPathExpressionException e)
+            {
+                throw new NucleusDataStoreException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Method to register that the supplied element is about to be removed from its container.
+     * @param element The element for the object
+     * @param keyNames Names of the primary key elements
+     */
+    public void remove(Element element, String[] keyNames)
+    {
+        KeyIndex index = getIndexIfBuilt(element.getParentNode(), element.getNodeName(), keyNames);
+        if (index != null)
+        {
+            index.remove(getKey(element, keyNames), element);
+        }
+        for (ClassIndex classIndex : classIndexes.values())
+        {
+            classIndex.remove(element, keyNames);
+        }
+    }
+
+    private KeyIndex getIndexIfBuilt(Node container, String elementName, String[] keyNames)
+    {
+        Map<String, KeyIndex> containerIndexes = indexes.get(container);
+        return containerIndexes != null ? containerIndexes.get(getIndexName(elementName, keyNames)) : null;
+    }
+
+    private KeyIndex getIndex(Node container, String elementName, String[] keyNames)
+    {
+        Map<String, KeyIndex> containerIndexes = indexes.computeIfAbsent(container, k -> new HashMap<>());
+        String indexName = getIndexName(elementName, keyNames);
+        KeyIndex index = containerIndexes.get(indexName);
+        if (index == null)
+        {
+            index = new KeyIndex();
+            for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child instanceof Element && child.getNodeName().equals(elementName))
+                {
+                    // First in document order wins, as with an XPath lookup
+                    index.add(getKey((Element)child, keyNames), (Element)child);
+                }
+            }
+            containerIndexes.put(indexName, index);
+        }
+        return index;
+    }
+
+    private static String getIndexName(String elementName, String[] keyNames)
+    {
+        return elementName + "/" + String.join("+", keyNames);
+    }
+
+    private static String getKey(Element element, String[] keyNames)
+    {
+        String[] keyValues = new String[keyNames.length];
+        for (int i = 0; i < keyNames.length; i++)
+        {
+            String keyValue = XMLUtils.getKeyValue(element, keyNames[i]);
+            keyValues[i] = keyValue != null ? keyValue : "";
+        }
+        return getKey(keyValues);
+    }
+
+    private static String getKey(String[] keyValues)
+    {
+        if (keyValues.length == 1)
+        {
+            return keyValues[0];
+        }
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < keyValues.length; i++)
+        {
+            if (i > 0)
+            {
+                str.append(KEY_SEPARATOR);
+            }
+            str.append(keyValues[i]);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Index of the objects of a class and its subclasses in a document, from primary key value(s) to the element for the
+     * object, with a dispatch table from the container and element name of an element to the class of the object.
+     */
+    public static class ClassIndex
+    {
+        /** Metadata for the classes of the inheritance tree, keyed by container element and then element name. */
+        private final Map<Node, Map<String, AbstractClassMetaData>> dispatch = new IdentityHashMap<>();
+
+        /** Metadata for the classes of the inheritance tree that have no container in the document yet, keyed by element name. */
+        private final Map<String, List<AbstractClassMetaData>> pending = new HashMap<>();
+
+        /** Element for each object of the inheritance tree, keyed by primary key value(s). */
+        private final KeyIndex elements = new KeyIndex();
+
+        /** Number of classes in the inheritance tree when this was built. */
+        private final int numClasses;
+
+        private ClassIndex(Document doc, List<AbstractClassMetaData> cmds) throws XPathExpressionException
+        {
+            numClasses = cmds.size();
+            List<Node> containers = new ArrayList<>();
+            for (AbstractClassMetaData cmd : cmds)
+            {
+                String elementName = XMLUtils.getElementNameForClass(cmd);
+                Node container = XMLUtils.getContainerForClass(doc, cmd);
+                if (container != null)
+                {
+                    if (!dispatch.containsKey(container))
+                    {
+                        containers.add(container);
+                    }
+                    dispatch.computeIfAbsent(container, k -> new HashMap<>()).putIfAbsent(elementName, cmd);
+                }
+                else
+                {
+                    pending.computeIfAbsent(elementName, k -> new ArrayList<>()).add(cmd);
+                }
+            }
+
+            // One scan of each container used by the inheritance tree, in class order (the class itself before its subclasses).
+            // First in document order wins, as with an XPath lookup
+            for (Node container : containers)
+            {
+                Map<String, AbstractClassMetaData> containerCmds = dispatch.get(container);
+                for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    AbstractClassMetaData cmd = child instanceof Element ? containerCmds.get(child.getNodeName()) : null;
+                    if (cmd != null)
+                    {
+                        elements.add(getKey((Element)child, XMLUtils.getPrimaryKeyElementNames(cmd)), (Element)child);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Method to find the element for the object with the specified primary key value(s).
+         * @param keyValues Values of the primary key elements
+         * @return The element for the object (or null if not present)
+         */
+        public Element get(String[] keyValues)
+        {
+            return elements.get(getKey(keyValues));
+        }
+
+        /**
+         * Accessor for the metadata of the class of the object represented by the specified element.
+         * @param element Element for an object of this inheritance tree (in its container)
+         * @return Metadata for the class of the object (or null if not an element of this inheritance tree)
+         */
+        public AbstractClassMetaData getMetaDataForElement(Element element)
+        {
+            Map<String, AbstractClassMetaData> containerCmds = dispatch.get(element.getParentNode());
+            return containerCmds != null ? containerCmds.get(element.getNodeName()) : null;
+        }
+
+        private void add(Document doc, Element element, String[] keyNames) throws XPathExpressionException
+        {
+            Node container = element.getParentNode();
+            if (getMetaDataForElement(element) == null)
+            {
+                // Check whether this is the first object of a class whose container has just been created
+                List<AbstractClassMetaData> pendingCmds = pending.get(element.getNodeName());
+                if (pendingCmds == null)
+                {
+                    return;
+                }
+                boolean found = false;
+                for (Iterator<AbstractClassMetaData> iter = pendingCmds.iterator(); iter.hasNext();)
+                {
+                    AbstractClassMetaData cmd = iter.next();
+                    if (XMLUtils.getContainerForClass(doc, cmd) == container)
+                    {
+                        dispatch.computeIfAbsent(container, k -> new HashMap<>()).putIfAbsent(element.getNodeName(), cmd);
+                        iter.remove();
+                        found = true;
+                    }
+                }
+                if (pendingCmds.isEmpty())
+                {
+                    pending.remove(element.getNodeName());
+                }
+                if (!found)
+                {
+                    return;
+                }
+            }
+            elements.add(getKey(element, keyNames), element);
+        }
+
+        private void remove(Element element, String[] keyNames)
+        {
+            if (getMetaDataForElement(element) == null)
+            {
+                return;
+            }
+            elements.remove(getKey(element, keyNames), element);
+        }
+    }
+
+    /**
+     * Map from primary key value(s) to the element of the object with that key. The first element added for a key is the one
+     * found by a lookup, and any further (duplicate) elements for the key are recorded in order, so that when the element
+     * found is removed the next of them takes its place.
+     */
+    private static class KeyIndex
+    {
+        /** Element found for each key. */
+        private final Map<String, Element> elements = new HashMap<>();
+
+        /** Further elements with the same key as the element found, in the order added (only created when needed). */
+        private Map<String, List<Element>> duplicates = null;
+
+        Element get(String key)
+        {
+            return elements.get(key);
+        }
+
+        void add(String key, Element element)
+        {
+            Element existing = elements.putIfAbsent(key, element);
+            if (existing != null && existing != element)
+            {
+                if (duplicates == null)
+                {
+                    duplicates = new HashMap<>();
+                }
+                List<Element> keyDuplicates = duplicates.computeIfAbsent(key, k -> new ArrayList<>(1));
+                if (!keyDuplicates.contains(element))
+                {
+                    keyDuplicates.add(element);
+                }
+            }
+        }
+
+        void remove(String key, Element element)
+        {
+            List<Element> keyDuplicates = duplicates != null ? duplicates.get(key) : null;
+            if (elements.remove(key, element))
+            {
+                if (keyDuplicates != null)
+                {
+                    // The next object with this key now becomes visible, as with a scan of the container
+                    elements.put(key, keyDuplicates.remove(0));
+                }
+            }
+            else if (keyDuplicates != null)
+            {
+                keyDuplicates.remove(element);
+            }
+            if (keyDuplicates != null && keyDuplicates.isEmpty())
+            {
+                duplicates.remove(key);
+            }
+        }
+    }
+}
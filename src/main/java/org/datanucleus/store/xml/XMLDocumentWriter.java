@@ -0,0 +1,376 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Serializer for a DOM document to an XML file, streaming the nodes through an {@link XMLOutput} into a large buffered
+ * file channel. This avoids the cost of creating a TransformerFactory/Transformer for each write.
+ * <p>
+ * When an indent is specified the document is pretty-printed, with any whitespace-only text between elements in the
+ * document ignored (so that the whitespace doesn't accumulate each time a parsed file is written back). Elements that have
+ * text content are written unchanged. An indent of 0 writes the document without any formatting whitespace.
+ * </p>
+ */
+public class XMLDocumentWriter
+{
+    /** Size of the output buffer (bytes). */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /** Number of spaces to indent each level by, or 0 for no formatting. */
+    private final int indent;
+
+    /** Newline plus indent for the most common depths. */
+    private final String[] indentStrings = new String[16];
+
+    /**
+     * Constructor.
+     * @param indent Number of spaces to indent each level by (0 for no formatting)
+     */
+    public XMLDocumentWriter(int indent)
+    {
+        this.indent = Math.max(indent, 0);
+        for (int i = 0; i < indentStrings.length; i++)
+        {
+            indentStrings[i] = "\n" + " ".repeat(i * this.indent);
+        }
+    }
+
+    /**
+     * Method to write the document to the specified file, replacing its contents.
+     * @param doc The document
+     * @param file The file
+     * @throws IOException if an error occurs writing the file
+     */
+    public void write(Document doc, File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            write(doc, Channels.newOutputStream(channel));
+        }
+    }
+
+    /**
+     * Method to write the document to the specified stream, using UTF-8.
+     * @param doc The document
+     * @param os The output stream (flushed but not closed by this method)
+     * @throws IOException if an error occurs writing the document
+     */
+    public void write(Document doc, OutputStream os) throws IOException
+    {
+        XMLOutput output = new XMLOutput(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE));
+        output.writeStartDocument();
+        for (Node child = doc.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (indent > 0)
+            {
+                output.writeCharacters("\n");
+            }
+            writeNode(output, child, 0);
+        }
+        if (indent > 0)
+        {
+            output.writeCharacters("\n");
+        }
+        output.flush();
+    }
+
+    private void writeNode(XMLOutput output, Node node, int depth) throws IOException
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE || !hasElementContentOnly(node))
+        {
+            // Text content (or other node) that has to be written as is
+            writeNode(output, node);
+            return;
+        }
+
+        writeStartElement(output, node);
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.TEXT_NODE)
+            {
+                // Whitespace-only formatting between elements
+                continue;
+            }
+            if (indent > 0)
+            {
+                writeIndent(output, depth + 1);
+            }
+            writeNode(output, child, depth + 1);
+        }
+        if (indent > 0)
+        {
+            writeIndent(output, depth);
+        }
+        output.writeEndElement();
+    }
+
+    private void writeIndent(XMLOutput output, int depth) throws IOException
+    {
+        output.writeCharacters(depth < indentStrings.length ? indentStrings[depth] : "\n" + " ".repeat(depth * indent));
+    }
+
+    /**
+     * Whether the element has child elements, and any text children are only whitespace (i.e formatting).
+     * @param node The element
+     * @return Whether it has only element content
+     */
+    private static boolean hasElementContentOnly(Node node)
+    {
+        boolean hasElement = false;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            short type = child.getNodeType();
+            if (type == Node.ELEMENT_NODE)
+            {
+                hasElement = true;
+            }
+            else if (type == Node.TEXT_NODE)
+            {
+                if (!child.getNodeValue().isBlank())
+                {
+                    return false;
+                }
+            }
+            else if (type == Node.CDATA_SECTION_NODE)
+            {
+                return false;
+            }
+        }
+        return hasElement;
+    }
+
+    /**
+     * Method to write the specified node (and its descendants) to the output as is, without any formatting.
+     * @param output The output
+     * @param node The node
+     * @throws IOException if an error occurs
+     */
+    static void writeNode(XMLOutput output, Node node) throws IOException
+    {
+        switch (node.getNodeType())
+        {
+            case Node.ELEMENT_NODE:
+                writeStartElement(output, node);
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    writeNode(output, child);
+                }
+                output.writeEndElement();
+                break;
+            case Node.TEXT_NODE:
+                output.writeCharacters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                output.writeCData(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                output.writeComment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                output.writeProcessingInstruction(node.getNodeName(), node.getNodeValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void writeStartElement(XMLOutput output, Node node) throws IOException
+    {
+        output.writeStartElement(node.getNodeName());
+        NamedNodeMap attrs = node.getAttributes();
+        for (int i = 0; i < attrs.getLength(); i++)
+        {
+            Attr attr = (Attr)attrs.item(i);
+            output.writeAttribute(attr.getName(), attr.getValue());
+        }
+    }
+
+    /**
+     * Streaming output of XML markup to a Writer.
+     * All characters that a parser would not return unchanged are written as character references, so the text and attribute
+     * values read back are the same as those written. This includes carriage returns (which a parser normalises to newlines),
+     * and newlines and tabs in attribute values (which a parser normalises to spaces); an XMLStreamWriter escapes neither.
+     */
+    static class XMLOutput
+    {
+        private final Writer writer;
+
+        /** Names of the elements started and not yet ended. */
+        private final Deque<String> elementNames = new ArrayDeque<>();
+
+        /** Whether the start tag of the current element is still open (so attributes can be added). */
+        private boolean startTagOpen = false;
+
+        XMLOutput(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        void writeStartDocument() throws IOException
+        {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        }
+
+        void writeStartElement(String name) throws IOException
+        {
+            closeStartTag();
+            writer.write('<');
+            writer.write(name);
+            elementNames.push(name);
+            startTagOpen = true;
+        }
+
+        void writeAttribute(String name, String value) throws IOException
+        {
+            if (!startTagOpen)
+            {
+                throw new IOException("Attribute " + name + " cannot be written outside of a start tag");
+            }
+            writer.write(' ');
+            writer.write(name);
+            writer.write("=\"");
+            writeEscaped(value, true);
+            writer.write('"');
+        }
+
+        void writeEndElement() throws IOException
+        {
+            closeStartTag();
+            writer.write("</");
+            writer.write(elementNames.pop());
+            writer.write('>');
+        }
+
+        void writeCharacters(String text) throws IOException
+        {
+            closeStartTag();
+            writeEscaped(text, false);
+        }
+
+        void writeCData(String text) throws IOException
+        {
+            closeStartTag();
+            writer.write("<![CDATA[");
+            writer.write(text.replace("]]>", "]]]]><![CDATA[>"));
+            writer.write("]]>");
+        }
+
+        void writeComment(String text) throws IOException
+        {
+            closeStartTag();
+            writer.write("<!--");
+            writer.write(text);
+            writer.write("-->");
+        }
+
+        void writeProcessingInstruction(String target, String data) throws IOException
+        {
+            closeStartTag();
+            writer.write("<?");
+            writer.write(target);
+            if (data != null && !data.isEmpty())
+            {
+                writer.write(' ');
+                writer.write(data);
+            }
+            writer.write("?>");
+        }
+
+        /**
+         * Method to flush the output, without ending any elements still open (so that more can be appended later).
+         * @throws IOException if an error occurs
+         */
+        void flush() throws IOException
+        {
+            closeStartTag();
+            writer.flush();
+        }
+
+        private void closeStartTag() throws IOException
+        {
+            if (startTagOpen)
+            {
+                writer.write('>');
+                startTagOpen = false;
+            }
+        }
+
+        private void writeEscaped(String value, boolean attribute) throws IOException
+        {
+            int length = value.length();
+            int start = 0;
+            for (int i = 0; i < length; i++)
+            {
+                String replacement;
+                char c = value.charAt(i);
+                switch (c)
+                {
+                    case '&':
+                        replacement = "&amp;";
+                        break;
+                    case '<':
+                        replacement = "&lt;";
+                        break;
+                    case '>':
+                        replacement = "&gt;";
+                        break;
+                    case '\r':
+                        replacement = "&#13;";
+                        break;
+                    case '"':
+                        replacement = attribute ? "&quot;" : null;
+                        break;
+                    case '\n':
+                        replacement = attribute ? "&#10;" : null;
+                        break;
+                    case '\t':
+                        replacement = attribute ? "&#9;" : null;
+                        break;
+                    default:
+                        replacement = null;
+                        break;
+                }
+                if (replacement != null)
+                {
+                    writer.write(value, start, i - start);
+                    writer.write(replacement);
+                    start = i + 1;
+                }
+            }
+            writer.write(value, start, length - start);
+        }
+    }
+}
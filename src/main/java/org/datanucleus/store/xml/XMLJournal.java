@@ -0,0 +1,577 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.datanucleus.util.NucleusLogger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Append-only journal (write-ahead log) for an XML file, stored alongside it as "{filename}.journal".
+ * Each commit appends the objects that it inserted, updated or deleted rather than rewriting the whole XML file, so commit cost
+ * depends on the size of the change rather than the size of the file. When the journal grows beyond a threshold the XML
+ * file is rewritten (compacted) and the journal removed. When the XML file is parsed the journal is replayed onto it.
+ * <p>
+ * The journal is an XML document of the form
+ * <pre>
+ * &lt;journal&gt;
+ *   &lt;commit&gt;
+ *     &lt;insert path="/root/people" key="id"&gt;&lt;person&gt;...&lt;/person&gt;&lt;/insert&gt;
+ *     &lt;update path="/root/people" key="id"&gt;&lt;person&gt;...&lt;/person&gt;&lt;/update&gt;
+ *     &lt;delete path="/root/people" key="id"&gt;&lt;person&gt;&lt;id&gt;1&lt;/id&gt;&lt;/person&gt;&lt;/delete&gt;
+ *   &lt;/commit&gt;
+ *   ...
+ * </pre>
+ * where the closing "journal" element is never written. Any incomplete commit at the end (e.g after a crash) is ignored on replay.
+ * Records are keyed by the primary key element(s) of the object, and are idempotent (an insert replaces any existing object
+ * with the same key, an update replaces it in its current position, and a delete of a missing object is ignored), so replaying a journal onto an already compacted file is harmless.
+ * </p>
+ */
+public class XMLJournal
+{
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final String ELEMENT_JOURNAL = "journal";
+    private static final String ELEMENT_COMMIT = "commit";
+    private static final String ELEMENT_INSERT = "insert";
+    private static final String ELEMENT_UPDATE = "update";
+    private static final String ELEMENT_DELETE = "delete";
+    private static final String ATTRIBUTE_PATH = "path";
+    private static final String ATTRIBUTE_KEY = "key";
+
+    /** Separator used between the values of a composite key. */
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    private final File journalFile;
+
+    /** Size (bytes) of journal beyond which the XML file should be compacted. */
+    private final long compactionThreshold;
+
+    /**
+     * Constructor.
+     * @param dataFile The XML file that this is the journal for
+     * @param compactionThreshold Size (bytes) of journal beyond which the XML file should be compacted
+     */
+    public XMLJournal(File dataFile, long compactionThreshold)
+    {
+        this.journalFile = new File(dataFile.getPath() + JOURNAL_SUFFIX);
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public File getFile()
+    {
+        return journalFile;
+    }
+
+    /**
+     * Whether the journal has grown beyond its threshold so the XML file should be compacted.
+     * @return Whether compaction is needed
+     */
+    public synchronized boolean needsCompaction()
+    {
+        return journalFile.length() > compactionThreshold;
+    }
+
+    /**
+     * Method to remove the journal, called once the XML file has been rewritten with all changes.
+     * @throws IOException if the journal cannot be deleted
+     */
+    public synchronized void delete() throws IOException
+    {
+        if (journalFile.exists() && !journalFile.delete())
+        {
+            throw new IOException("Unable to delete XML journal " + journalFile);
+        }
+    }
+
+    /**
+     * Method to append a commit containing the specified records to the journal.
+     * @param records The records
+     * @throws IOException if an error occurs writing the journal
+     */
+    public synchronized void append(List<Record> records) throws IOException
+    {
+        if (records.isEmpty())
+        {
+            return;
+        }
+
+        boolean newJournal = !journalFile.exists() || journalFile.length() == 0;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLDocumentWriter.XMLOutput output = new XMLDocumentWriter.XMLOutput(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        if (newJournal)
+        {
+            output.writeStartDocument();
+            output.writeStartElement(ELEMENT_JOURNAL);
+        }
+        output.writeCharacters("\n");
+        output.writeStartElement(ELEMENT_COMMIT);
+        for (Record record : records)
+        {
+            output.writeCharacters("\n");
+            output.writeStartElement(record.type);
+            output.writeAttribute(ATTRIBUTE_PATH, record.path);
+            output.writeAttribute(ATTRIBUTE_KEY, String.join(" ", record.keyNames));
+            if (record.element != null)
+            {
+                XMLDocumentWriter.writeNode(output, record.element);
+            }
+            else
+            {
+                output.writeStartElement(record.elementName);
+                for (int i=0;i<record.keyNames.length;i++)
+                {
+                    output.writeStartElement(record.keyNames[i]);
+                    output.writeCharacters(record.keyValues[i]);
+                    output.writeEndElement();
+                }
+                output.writeEndElement();
+            }
+            output.writeEndElement();
+        }
+        output.writeEndElement();
+        output.flush();
+
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Method to replay all complete commits of the journal onto the supplied document (parsed from the XML file).
+     * @param doc The document
+     * @throws IOException if an error occurs reading the journal
+     */
+    public synchronized void replay(Document doc) throws IOException
+    {
+        if (!journalFile.exists() || journalFile.length() == 0)
+        {
+            return;
+        }
+
+        int numCommits = 0;
+        ReplayIndex index = new ReplayIndex(doc);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(journalFile)))
+        {
+            // Coalesce text so that a value containing character references is read as one text node
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+            List<Element> commitRecords = null;
+            try
+            {
+                while (reader.hasNext())
+                {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT)
+                    {
+                        String name = reader.getLocalName();
+                        if (ELEMENT_COMMIT.equals(name))
+                        {
+                            commitRecords = new ArrayList<>();
+                        }
+                        else if (commitRecords != null && (ELEMENT_INSERT.equals(name) || ELEMENT_UPDATE.equals(name) || ELEMENT_DELETE.equals(name)))
+                        {
+                            commitRecords.add(readElement(reader, doc));
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT && ELEMENT_COMMIT.equals(reader.getLocalName()))
+                    {
+                        // Only apply a commit once we have all of it
+                        for (Element record : commitRecords)
+                        {
+                            applyRecord(index, record);
+                        }
+                        commitRecords = null;
+                        numCommits++;
+                    }
+                }
+            }
+            catch (XMLStreamException e)
+            {
+                // End of the journal (unclosed), or a commit that was only partially written
+                if (commitRecords != null)
+                {
+                    NucleusLogger.CONNECTION.warn("XML journal " + journalFile + " has an incomplete commit at the end which has been ignored");
+                }
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        if (NucleusLogger.CONNECTION.isDebugEnabled())
+        {
+            NucleusLogger.CONNECTION.debug("Replayed " + numCommits + " commit(s) from XML journal " + journalFile);
+        }
+    }
+
+    /**
+     * Method to apply a journal record to the document.
+     * @param index Index of the document being replayed onto
+     * @param record The record element ("insert", "update" or "delete")
+     */
+    private void applyRecord(ReplayIndex index, Element record)
+    {
+        String[] keyNames = record.getAttribute(ATTRIBUTE_KEY).split(" ");
+        Element element = getFirstChildElement(record);
+        Element container = index.getContainer(record.getAttribute(ATTRIBUTE_PATH));
+        KeyIndex keyIndex = index.getKeyIndex(container, element.getNodeName(), keyNames);
+        String key = getKey(element, keyNames);
+        Element existing = (key != null ? keyIndex.elements.get(key) : null);
+
+        if (ELEMENT_UPDATE.equals(record.getNodeName()) && existing != null)
+        {
+            // Replace the existing object, keeping its position
+            container.replaceChild(element, existing);
+            keyIndex.elements.put(key, element);
+            return;
+        }
+
+        // Remove any existing object with this key
+        if (existing != null)
+        {
+            container.removeChild(existing);
+            keyIndex.remove(container, key);
+        }
+
+        if (!ELEMENT_DELETE.equals(record.getNodeName()))
+        {
+            container.appendChild(element);
+            if (key != null)
+            {
+                keyIndex.add(key, element);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the key of the supplied element, being its key value(s) separated by KEY_SEPARATOR.
+     * @param element The element
+     * @param keyNames Names of the key elements (or attributes)
+     * @return The key, or null if the element doesn't have all key values
+     */
+    private static String getKey(Element element, String[] keyNames)
+    {
+        if (keyNames.length == 1)
+        {
+            return XMLUtils.getKeyValue(element, keyNames[0]);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (int i=0;i<keyNames.length;i++)
+        {
+            String keyValue = XMLUtils.getKeyValue(element, keyNames[i]);
+            if (keyValue == null)
+            {
+                return null;
+            }
+            if (i > 0)
+            {
+                key.append(KEY_SEPARATOR);
+            }
+            key.append(keyValue);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Accessor for the path (e.g "/root/people") of the supplied container element in its document.
+     * @param container The container element
+     * @return The path
+     */
+    public static String getPathForContainer(Element container)
+    {
+        StringBuilder path = new StringBuilder();
+        for (Node node = container; node instanceof Element; node = node.getParentNode())
+        {
+            path.insert(0, node.getNodeName()).insert(0, '/');
+        }
+        return path.toString();
+    }
+
+    /**
+     * Method to return the container element for the specified path, creating any missing elements of the path.
+     * @param doc The document
+     * @param path The path
+     * @return The container
+     */
+    private static Element getContainerForPath(Document doc, String path)
+    {
+        String[] names = path.substring(1).split("/");
+        Element element = doc.getDocumentElement();
+        if (element == null)
+        {
+            element = doc.createElement(names[0]);
+            doc.appendChild(element);
+        }
+        for (int i=1;i<names.length;i++)
+        {
+            Element child = null;
+            for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+            {
+                if (node instanceof Element && node.getNodeName().equals(names[i]))
+                {
+                    child = (Element)node;
+                    break;
+                }
+            }
+            if (child == null)
+            {
+                child = doc.createElement(names[i]);
+                element.appendChild(child);
+            }
+            element = child;
+        }
+        return element;
+    }
+
+    private static Element getFirstChildElement(Element element)
+    {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                return (Element)node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method to read the current element (and its content) from the reader as an element of the supplied document.
+     * On return the reader is positioned at the end of the element.
+     * @param reader The reader
+     * @param doc The document to create the element in
+     * @return The element
+     * @throws XMLStreamException if an error occurs reading
+     */
+    private static Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException
+    {
+        Element element = doc.createElement(reader.getLocalName());
+        for (int i=0;i<reader.getAttributeCount();i++)
+        {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        while (true)
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                element.appendChild(readElement(reader, doc));
+            }
+            else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+            {
+                element.appendChild(doc.createTextNode(reader.getText()));
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                return element;
+            }
+        }
+    }
+
+    /**
+     * Index of the document that a journal is being replayed onto, so that applying a record doesn't search the document.
+     * Containers are found by path, and the objects of a container by key (indexed on first use, and then kept up to date
+     * as the records are applied).
+     */
+    private static class ReplayIndex
+    {
+        final Document doc;
+
+        final Map<String, Element> containers = new HashMap<>();
+
+        /** Index of the objects, keyed by container element, and then by element name and key element names. */
+        final Map<Element, Map<String, KeyIndex>> keyIndexes = new HashMap<>();
+
+        ReplayIndex(Document doc)
+        {
+            this.doc = doc;
+        }
+
+        Element getContainer(String path)
+        {
+            return containers.computeIfAbsent(path, p -> getContainerForPath(doc, p));
+        }
+
+        KeyIndex getKeyIndex(Element container, String elementName, String[] keyNames)
+        {
+            String indexName = elementName + KEY_SEPARATOR + String.join(" ", keyNames);
+            return keyIndexes.computeIfAbsent(container, c -> new HashMap<>()).computeIfAbsent(indexName, n ->
+            {
+                KeyIndex keyIndex = new KeyIndex(elementName, keyNames);
+                for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    if (child instanceof Element && child.getNodeName().equals(elementName))
+                    {
+                        String key = getKey((Element)child, keyNames);
+                        if (key != null)
+                        {
+                            keyIndex.add(key, (Element)child);
+                        }
+                    }
+                }
+                return keyIndex;
+            });
+        }
+    }
+
+    /**
+     * Elements with a particular name in a container, keyed by their key values. Where more than one element has the same
+     * key the first in the container is used, as it would be by a search of the container.
+     */
+    private static class KeyIndex
+    {
+        final String elementName;
+        final String[] keyNames;
+
+        final Map<String, Element> elements = new HashMap<>();
+
+        /** Whether any key has more than one element, so removing an element has to look for another with its key. */
+        boolean duplicates = false;
+
+        KeyIndex(String elementName, String[] keyNames)
+        {
+            this.elementName = elementName;
+            this.keyNames = keyNames;
+        }
+
+        void add(String key, Element element)
+        {
+            if (elements.putIfAbsent(key, element) != null)
+            {
+                duplicates = true;
+            }
+        }
+
+        void remove(Element container, String key)
+        {
+            elements.remove(key);
+            if (duplicates)
+            {
+                for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    if (child instanceof Element && child.getNodeName().equals(elementName) && key.equals(getKey((Element)child, keyNames)))
+                    {
+                        elements.put(key, (Element)child);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record of a change to an object in the XML file, to be written to the journal.
+     */
+    public static class Record
+    {
+        /** Type of the record ("insert", "update" or "delete"). */
+        final String type;
+        final String path;
+        final String[] keyNames;
+
+        /** Element for the object inserted/updated. Serialised when the commit is written. */
+        final Element element;
+
+        /** Name of the element for the object deleted. */
+        final String elementName;
+
+        /** Key values of the object deleted. */
+        final String[] keyValues;
+
+        private Record(String type, String path, String[] keyNames, Element element, String elementName, String[] keyValues)
+        {
+            this.type = type;
+            this.path = path;
+            this.keyNames = keyNames;
+            this.element = element;
+            this.elementName = elementName;
+            this.keyValues = keyValues;
+        }
+
+        /**
+         * Create a record for the insert of the object represented by the supplied element (in its container).
+         * @param element The element for the object
+         * @param keyNames Names of the primary key elements of the object
+         * @return The record
+         */
+        public static Record newInsert(Element element, String[] keyNames)
+        {
+            return new Record(ELEMENT_INSERT, getPathForContainer((Element)element.getParentNode()), keyNames, element, null, null);
+        }
+
+        /**
+         * Create a record for the update (in place) of the object represented by the supplied element (in its container).
+         * @param element The element for the object
+         * @param keyNames Names of the primary key elements of the object
+         * @return The record
+         */
+        public static Record newUpdate(Element element, String[] keyNames)
+        {
+            return new Record(ELEMENT_UPDATE, getPathForContainer((Element)element.getParentNode()), keyNames, element, null, null);
+        }
+
+        /**
+         * Create a record for the delete of the object represented by the supplied element (still in its container).
+         * @param element The element for the object
+         * @param keyNames Names of the primary key elements of the object
+         * @return The record
+         */
+        public static Record newDelete(Element element, String[] keyNames)
+        {
+            String[] keyValues = new String[keyNames.length];
+            for (int i=0;i<keyNames.length;i++)
+            {
+                String keyValue = XMLUtils.getKeyValue(element, keyNames[i]);
+                keyValues[i] = (keyValue != null ? keyValue : "");
+            }
+            return new Record(ELEMENT_DELETE, getPathForContainer((Element)element.getParentNode()), keyNames, null, element.getNodeName(), keyValues);
+        }
+    }
+}
@@ -24,10 +24,18 @@ import org.datanucleus.metadata.MetaDataListener;
 
 /**
  * Listener for the load of metadata for classes.
- * Allows us to reject metadata when it isn't supported by this datastore.
+ * Allows us to reject metadata when it isn't supported by this datastore (or has invalid XML extensions), resolves the
+ * {@link XMLClassMapping} of the class, and clears any JAXB state that was derived from the previously loaded metadata.
  */
 public class XMLMetaDataListener implements MetaDataListener
 {
+    XMLStoreManager storeMgr;
+
+    public XMLMetaDataListener(XMLStoreManager storeMgr)
+    {
+        this.storeMgr = storeMgr;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.metadata.MetaDataListener#loaded(org.datanucleus.metadata.AbstractClassMetaData)
      */
@@ -38,5 +46,34 @@ public class XMLMetaDataListener implements MetaDataListener
             // Datastore id not supported
             throw new InvalidClassMetaDataException("XML.DatastoreID", cmd.getFullClassName());
         }
+
+        if (cmd.hasExtension(XMLUtils.EXTENSION_PARTITIONS))
+        {
+            String partitions = cmd.getValueForExtension(XMLUtils.EXTENSION_PARTITIONS);
+            try
+            {
+                if (Integer.parseInt(partitions) < 1)
+                {
+                    throw new InvalidClassMetaDataException("XML.PartitionsInvalid", cmd.getFullClassName(), partitions);
+                }
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new InvalidClassMetaDataException("XML.PartitionsInvalid", cmd.getFullClassName(), partitions);
+            }
+        }
+
+        // Resolve the XML names of the class and its members once, for use by all accesses to its objects
+        XMLClassMapping.load(cmd);
+
+        // Any cached JAXBContext may have been built without knowledge of this class
+        storeMgr.getJAXBHandler().clearCache();
+        if (storeMgr.getCodecHandler() != null)
+        {
+            storeMgr.getCodecHandler().clearCache();
+        }
+
+        // Compiled XPaths are cached against class metadata, which may now be different
+        XMLUtils.getXPathCache().clear();
     }
 }
\ No newline at end of file
@@ -18,42 +18,48 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.xml;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
+import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.enhancement.Persistable;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
 import org.datanucleus.exceptions.NucleusOptimisticException;
 import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.metadata.AbstractMemberMetaData;
-import org.datanucleus.metadata.FieldRole;
 import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.AbstractPersistenceHandler;
 import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.ValidatingStorePersistenceHandler;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.fieldmanager.PersistFieldManager;
+import org.datanucleus.store.types.SCOContainer;
+import org.datanucleus.store.types.wrappers.backed.BackedSCO;
+import org.datanucleus.store.xml.ConnectionFactoryImpl.ManagedConnectionImpl;
+import org.datanucleus.store.xml.codec.ClassCodec;
+import org.datanucleus.store.xml.codec.DOMCodecHandler;
 import org.datanucleus.store.xml.fieldmanager.FetchFieldManager;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
  * Persistence handler for persisting to XML datastores.
  */
-public class XMLPersistenceHandler extends AbstractPersistenceHandler
+public class XMLPersistenceHandler extends AbstractPersistenceHandler implements ValidatingStorePersistenceHandler
 {
-    private XPath xpath = XPathFactory.newInstance().newXPath();
-
     /**
      * Constructor.
      * @param storeMgr Manager for the datastore
@@ -77,31 +83,82 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
      */
     public void insertObject(final DNStateManager sm)
     {
-        // Check if read-only so update not permitted
-        assertReadOnlyForUpdateOfObject(sm);
+        insertObjects(sm);
+    }
+
+    /**
+     * Insert the objects managed by the passed StateManagers into the XML datastore, using a single connection and finding
+     * the container of each class (in each document) only once.
+     * @param sms StateManagers
+     * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     */
+    @Override
+    public void insertObjects(DNStateManager... sms)
+    {
+        if (sms.length == 0)
+        {
+            return;
+        }
+        for (DNStateManager sm : sms)
+        {
+            // Check if read-only so update not permitted
+            assertReadOnlyForUpdateOfObject(sm);
+        }
 
-        if (sm.getClassMetaData().getIdentityType() == IdentityType.APPLICATION)
+        ExecutionContext ec = sms[0].getExecutionContext();
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            for (DNStateManager sm : sms)
+            {
+                insertObject(sm, mconn);
+            }
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to insert the object managed by the passed StateManager, as part of a batch of objects.
+     * @param sm StateManager
+     * @param mconn Connection to use
+     */
+    private void insertObject(DNStateManager sm, ManagedConnection mconn)
+    {
+        ExecutionContext ec = sm.getExecutionContext();
+        AbstractClassMetaData acmd = sm.getClassMetaData();
+        String[] keyValues = XMLUtils.getKeyValues(sm);
+        String[] pkElementNames = XMLUtils.getPrimaryKeyElementNames(acmd);
+        Document doc = ((ManagedConnectionImpl)mconn).getDocumentForObject(acmd, keyValues);
+
+        Node classnode;
+        try
+        {
+            classnode = XMLUtils.getContainerForClass(doc, acmd);
+        }
+        catch (Exception e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        if (acmd.getIdentityType() == IdentityType.APPLICATION)
         {
             // Check existence of the object since XML doesn't enforce application identity
-            try
+            if (ec.getStatistics() != null)
             {
-                locateObject(sm);
-                throw new NucleusUserException(Localiser.msg("XML.Insert.ObjectWithIdAlreadyExists",
-                    sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                ec.getStatistics().incrementNumReads();
             }
-            catch (NucleusObjectNotFoundException onfe)
+            if (classnode != null &&
+                XMLDocumentIndex.getIndex(doc).get(classnode, XMLUtils.getElementNameForClass(acmd), pkElementNames, keyValues) != null)
             {
-                // Do nothing since object with this id doesn't exist
+                throw new NucleusUserException(Localiser.msg("XML.Insert.ObjectWithIdAlreadyExists",
+                    sm.getObjectAsPrintable(), sm.getInternalObjectId()));
             }
         }
 
-        ExecutionContext ec = sm.getExecutionContext();
-        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
         try
         {
-            Document doc = (Document) mconn.getConnection();
-
-            AbstractClassMetaData acmd = sm.getClassMetaData();
             long startTime = 0;
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
@@ -119,8 +176,12 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
             sm.provideFields(fieldNumbers, new PersistFieldManager(sm, true));
 
             // Marshall the object using the XPath for objects of this class
-            Node classnode = getNodeForClass(doc, acmd);
-            ((XMLStoreManager)storeMgr).getJAXBHandler().marshall(sm.getObject(), classnode, sm.getExecutionContext().getClassLoaderResolver());
+            if (classnode == null)
+            {
+                classnode = getNodeForClass(doc, acmd);
+            }
+            ((XMLStoreManager)storeMgr).getJAXBHandler().marshall(sm.getObject(), classnode, ec.getClassLoaderResolver());
+            ((ManagedConnectionImpl)mconn).recordInsert(XMLUtils.getLastChildElement(classnode), pkElementNames);
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("XML.ExecutionTime", (System.currentTimeMillis() - startTime)));
@@ -141,10 +202,6 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
         {
             throw new NucleusDataStoreException(e.getMessage(), e);
         }
-        finally
-        {
-            mconn.release();
-        }
     }
 
     /**
@@ -163,7 +220,7 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
         try
         {
-            Document doc = (Document) mconn.getConnection();
+            Document doc = ((ManagedConnectionImpl)mconn).getDocumentForObject(acmd, XMLUtils.getKeyValues(sm));
             long startTime = 0;
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
@@ -188,19 +245,40 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
                 // TODO Implement version checks
             }
 
-            // Make sure we have all fields loaded that need to be (removing the node will lose them temporarily)
-            sm.loadUnloadedFields();
-
-            // Enable handling of reachable objects. TODO Only do this on the relation fields that are in "fieldNumbers"
-            sm.provideFields(fieldNumbers, new PersistFieldManager(sm, false));
-
-            // Remove old node
-            Node node = XMLUtils.findNode(doc, sm);
-            node.getParentNode().removeChild(node);
+            String[] pkElementNames = XMLUtils.getPrimaryKeyElementNames(acmd);
+            DOMCodecHandler codecHandler = ((XMLStoreManager)storeMgr).getCodecHandler();
+            ClassCodec codec = (codecHandler != null ? codecHandler.findClassCodec(sm.getObject().getClass(), ec.getClassLoaderResolver()) : null);
+            if (codec != null && !containsPrimaryKeyField(acmd, fieldNumbers))
+            {
+                // Enable handling of reachable objects. TODO Only do this on the relation fields that are in "fieldNumbers"
+                sm.provideFields(fieldNumbers, new PersistFieldManager(sm, false));
 
-            // Add new node
-            Node classnode = getNodeForClass(doc, acmd); // Get the XPath for objects of this class
-            ((XMLStoreManager)storeMgr).getJAXBHandler().marshall(sm.getObject(), classnode, sm.getExecutionContext().getClassLoaderResolver());
+                // Update the elements/attributes of the updated fields in the existing node, so no other fields need loading
+                Node node = XMLUtils.findNode(mconn, sm);
+                codec.updateFields((Persistable)sm.getObject(), (Element)node, fieldNumbers);
+                ((ManagedConnectionImpl)mconn).recordUpdate((Element)node, pkElementNames);
+            }
+            else
+            {
+                // No codec (JAXB handler without "datanucleus.xml.fieldCodec"), or the key is changing, so replace the node with
+                // one marshalled from the whole object, which moves it to the end of its container.
+                // Make sure we have all fields loaded that need to be (removing the node will lose them temporarily)
+                sm.loadUnloadedFields();
+                loadLazyCollections(sm);
+
+                // Enable handling of reachable objects. TODO Only do this on the relation fields that are in "fieldNumbers"
+                sm.provideFields(fieldNumbers, new PersistFieldManager(sm, false));
+
+                // Remove old node
+                Node node = XMLUtils.findNode(mconn, sm);
+                ((ManagedConnectionImpl)mconn).recordDelete((Element)node, pkElementNames);
+                node.getParentNode().removeChild(node);
+
+                // Add new node
+                Node classnode = getNodeForClass(doc, acmd); // Get the XPath for objects of this class
+                ((XMLStoreManager)storeMgr).getJAXBHandler().marshall(sm.getObject(), classnode, sm.getExecutionContext().getClassLoaderResolver());
+                ((ManagedConnectionImpl)mconn).recordInsert(XMLUtils.getLastChildElement(classnode), pkElementNames);
+            }
 
             if (ec.getStatistics() != null)
             {
@@ -223,6 +301,42 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
         }
     }
 
+    /**
+     * Whether any of the specified fields is a primary key field, so updating the object changes its key.
+     * @param acmd Metadata for the class
+     * @param fieldNumbers Absolute field numbers
+     * @return Whether a primary key field is included
+     */
+    private static boolean containsPrimaryKeyField(AbstractClassMetaData acmd, int[] fieldNumbers)
+    {
+        for (int i = 0; i < fieldNumbers.length; i++)
+        {
+            if (acmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumbers[i]).isPrimaryKey())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to load the elements of any lazy loaded collection fields of the object, since these are loaded from the node of
+     * the object which is about to be replaced.
+     * @param sm StateManager
+     */
+    private void loadLazyCollections(DNStateManager sm)
+    {
+        int[] fieldNumbers = sm.getClassMetaData().getSCOMutableMemberPositions();
+        for (int i = 0; i < fieldNumbers.length; i++)
+        {
+            Object value = sm.provideField(fieldNumbers[i]);
+            if (value instanceof BackedSCO && !((BackedSCO)value).isLoaded())
+            {
+                ((SCOContainer)value).load();
+            }
+        }
+    }
+
     /**
      * Deletes the object managed by the passed StateManager from the XML datastore.
      * @param sm StateManager
@@ -231,39 +345,70 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
      */
     public void deleteObject(DNStateManager sm)
     {
-        // Check if read-only so update not permitted
-        assertReadOnlyForUpdateOfObject(sm);
+        deleteObjects(sm);
+    }
 
-        ExecutionContext ec = sm.getExecutionContext();
+    /**
+     * Deletes the objects managed by the passed StateManagers from the XML datastore, using a single connection and finding
+     * the container of each class (in each document) only once.
+     * @param sms StateManagers
+     * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     */
+    @Override
+    public void deleteObjects(DNStateManager... sms)
+    {
+        if (sms.length == 0)
+        {
+            return;
+        }
+        for (DNStateManager sm : sms)
+        {
+            // Check if read-only so update not permitted
+            assertReadOnlyForUpdateOfObject(sm);
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
         try
         {
-            Document doc = (Document) mconn.getConnection();
-            long startTime = System.currentTimeMillis();
-            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+            for (DNStateManager sm : sms)
             {
-                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("XML.Delete.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
-            }
+                AbstractClassMetaData acmd = sm.getClassMetaData();
+                long startTime = System.currentTimeMillis();
+                if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("XML.Delete.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                }
 
-            AbstractClassMetaData acmd = sm.getClassMetaData();
-            if (acmd.isVersioned())
-            {
-                // TODO Implement version checks
-            }
+                if (acmd.isVersioned())
+                {
+                    // TODO Implement version checks
+                }
 
-            Node node = XMLUtils.findNode(doc, sm);
-            node.getParentNode().removeChild(node);
+                Element element = XMLUtils.findElementForKey(mconn, acmd, XMLUtils.getKeyValues(sm));
+                if (element == null)
+                {
+                    throw new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound",
+                        sm.getObjectAsPrintable(), sm.getInternalObjectId(), getXPathForObjects(acmd)), sm.getInternalObjectId());
+                }
+                ((ManagedConnectionImpl)mconn).recordDelete(element, XMLUtils.getPrimaryKeyElementNames(acmd));
+                element.getParentNode().removeChild(element);
 
-            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
-            {
-                NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("XML.ExecutionTime", (System.currentTimeMillis() - startTime)));
-            }
-            if (ec.getStatistics() != null)
-            {
-                ec.getStatistics().incrementNumWrites();
-                ec.getStatistics().incrementDeleteCount();
+                if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("XML.ExecutionTime", (System.currentTimeMillis() - startTime)));
+                }
+                if (ec.getStatistics() != null)
+                {
+                    ec.getStatistics().incrementNumWrites();
+                    ec.getStatistics().incrementDeleteCount();
+                }
             }
         }
+        catch (NucleusObjectNotFoundException onfe)
+        {
+            throw onfe;
+        }
         catch (Exception e)
         {
             throw new NucleusDataStoreException(e.getMessage(), e);
@@ -303,10 +448,14 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
                     sm.getObjectAsPrintable(), sm.getInternalObjectId(), fieldsString));
             }
 
-            Document doc = (Document) mconn.getConnection();
-
             // Find the object from XML, and populate the required fields
-            sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, doc));
+            Node node = XMLUtils.findNode(mconn, sm);
+            if (node == null)
+            {
+                throw new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound",
+                    sm.getObjectAsPrintable(), sm.getInternalObjectId(), getXPathForObjects(cmd)), sm.getInternalObjectId());
+            }
+            sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, mconn, node));
 
             if (cmd.isVersioned())
             {
@@ -331,14 +480,67 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
 
     /**
      * Accessor for the object with the specified identity (if present).
-     * Since we don't manage the memory instantiation of objects this just returns null.
+     * For single-field identity the element for the object is found (in the container of the target class, or of one of its
+     * subclasses, which also gives the actual class of the object), and the object is created with the fields of the fetch
+     * plan loaded from that element. Any other identity is left to DataNucleus, so this returns null.
      * @param ec execution context
      * @param id Identity of the object
-     * @return The object
+     * @return The object (or null if not found)
      */
     public Object findObject(ExecutionContext ec, Object id)
     {
-        return null;
+        if (!IdentityUtils.isSingleFieldIdentity(id))
+        {
+            return null;
+        }
+
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        AbstractClassMetaData acmd = ec.getMetaDataManager().getMetaDataForClass(IdentityUtils.getTargetClassNameForIdentity(id), clr);
+        if (acmd == null || acmd.getIdentityType() != IdentityType.APPLICATION)
+        {
+            return null;
+        }
+
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().incrementNumReads();
+            }
+
+            AbstractClassMetaData[] cmds = new AbstractClassMetaData[1];
+            String[] keyValues = new String[] {IdentityUtils.getTargetKeyForSingleFieldIdentity(id).toString()};
+            Element element = XMLUtils.findElementsForKeys(mconn, acmd, ec.getMetaDataManager(), keyValues, clr, cmds)[0];
+            if (element == null)
+            {
+                // Not present, so leave it to DataNucleus to decide what to do with the id
+                return null;
+            }
+
+            int[] fieldNumbers = ec.getFetchPlan().getFetchPlanForClass(cmds[0]).getMemberNumbers();
+            return ec.findObject(id, FetchFieldManager.getFieldValuesForElement(mconn, element, fieldNumbers),
+                clr.classForName(cmds[0].getFullClassName()), false, false);
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to validate that the object managed by the StateManager exists in the datastore. An object that has just been
+     * read by {@link #findObject(ExecutionContext, Object)} is known to exist, so is not read again.
+     * @param sm StateManager
+     * @param readFromDatastore Whether the object was just read from the datastore
+     */
+    @Override
+    public void validate(DNStateManager sm, boolean readFromDatastore)
+    {
+        if (!readFromDatastore)
+        {
+            sm.validate();
+        }
     }
 
     /**
@@ -348,56 +550,47 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
      */
     public void locateObject(DNStateManager sm)
     {
-        AbstractClassMetaData acmd = sm.getClassMetaData();
-        if (acmd.getIdentityType() == IdentityType.DATASTORE)
-        {
-            throw new NucleusException(Localiser.msg("XML.DatastoreID"));
-        }
-        else if (acmd.getIdentityType() == IdentityType.NONDURABLE)
+        locateObjects(new DNStateManager[] {sm});
+    }
+
+    /**
+     * Locates the objects managed by the passed StateManagers in the XML datastore, using a single connection and finding
+     * the container of each class (in each document) only once.
+     * @param sms StateManagers
+     * @throws NucleusObjectNotFoundException if any of the objects is not found, with a nested exception for each of them
+     */
+    @Override
+    public void locateObjects(DNStateManager[] sms)
+    {
+        if (sms.length == 0)
         {
-            throw new NucleusException("Nondurable not supported");
+            return;
         }
-        else
+        for (DNStateManager sm : sms)
         {
-            ExecutionContext ec = sm.getExecutionContext();
-            boolean isStored = false;
-
-            // Get any node with these key values from XML
-            long startTime = System.currentTimeMillis();
-            if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+            AbstractClassMetaData acmd = sm.getClassMetaData();
+            if (acmd.getIdentityType() == IdentityType.DATASTORE)
             {
-                NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("XML.Locate.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
+                throw new NucleusException(Localiser.msg("XML.DatastoreID"));
             }
-
-            ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
-            StringBuilder expression = null;
-            try
+            else if (acmd.getIdentityType() == IdentityType.NONDURABLE)
             {
-                Document doc = (Document) mconn.getConnection();
+                throw new NucleusException("Nondurable not supported");
+            }
+        }
 
-                // Get the XPath for the objects of this class
-                expression = new StringBuilder(XMLUtils.getXPathForClass(acmd));
-                if (expression.length() == 0)
-                {
-                    if (doc.getDocumentElement() != null)
-                    {
-                        expression.append("/").append(doc.getDocumentElement().getNodeName());
-                    }
-                    else
-                    {
-                        // No root, so can't have an object
-                        throw new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound", 
-                            sm.getObjectAsPrintable(), sm.getInternalObjectId(), expression.toString()));
-                    }
-                }
-                expression.append("/").append(XMLUtils.getElementNameForClass(acmd));
-                String[] pk = acmd.getPrimaryKeyMemberNames();
-                for (int i=0; i<pk.length; i++)
+        ExecutionContext ec = sms[0].getExecutionContext();
+        List<NucleusObjectNotFoundException> notFound = new ArrayList<>();
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec);
+        try
+        {
+            for (DNStateManager sm : sms)
+            {
+                // Get any node with these key values from XML
+                long startTime = System.currentTimeMillis();
+                if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
                 {
-                    AbstractMemberMetaData pkmmd = acmd.getMetaDataForMember(pk[i]);
-                    String pkElement = XMLUtils.getElementNameForMember(pkmmd, FieldRole.ROLE_FIELD);
-                    Object obj = sm.provideField(acmd.getPKMemberPositions()[i]);
-                    expression.append("/").append(pkElement).append("/text()='").append(obj.toString()).append("'"); 
+                    NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("XML.Locate.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
                 }
 
                 if (ec.getStatistics() != null)
@@ -405,31 +598,55 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
                     ec.getStatistics().incrementNumReads();
                 }
 
-                isStored = (Boolean) xpath.evaluate(expression.toString(), doc, XPathConstants.BOOLEAN);
-            }
-            catch (Exception e)
-            {
-                throw new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound", 
-                    sm.getObjectAsPrintable(), sm.getInternalObjectId(), expression));
-            }
-            finally
-            {
-                mconn.release();
-            }
+                boolean isStored = false;
+                try
+                {
+                    isStored = (XMLUtils.findElementForKey(mconn, sm.getClassMetaData(), XMLUtils.getKeyValues(sm)) != null);
+                }
+                catch (Exception e)
+                {
+                    // Treated as not found
+                }
 
-            if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
-            {
-                NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("XML.ExecutionTime", (System.currentTimeMillis() - startTime)));
-            }
+                if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE_RETRIEVE.debug(Localiser.msg("XML.ExecutionTime", (System.currentTimeMillis() - startTime)));
+                }
 
-            if (!isStored)
-            {
-                throw new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound", 
-                    sm.getObjectAsPrintable(), sm.getInternalObjectId(), expression));
+                if (!isStored)
+                {
+                    notFound.add(new NucleusObjectNotFoundException(Localiser.msg("XML.Object.NotFound",
+                        sm.getObjectAsPrintable(), sm.getInternalObjectId(), getXPathForObjects(sm.getClassMetaData())), sm.getInternalObjectId()));
+                }
             }
         }
+        finally
+        {
+            mconn.release();
+        }
+
+        if (notFound.size() == 1)
+        {
+            throw notFound.get(0);
+        }
+        else if (!notFound.isEmpty())
+        {
+            throw new NucleusObjectNotFoundException("Some of the objects were not found in the datastore",
+                notFound.toArray(new NucleusObjectNotFoundException[notFound.size()]));
+        }
     }
-    
+
+    /**
+     * Convenience method to return the XPath of the objects of the specified class, for use in messages.
+     * @param acmd Metadata for the class
+     * @return The XPath
+     */
+    private static String getXPathForObjects(AbstractClassMetaData acmd)
+    {
+        String classXPath = XMLUtils.getXPathForClass(acmd);
+        return (classXPath != null ? classXPath : "") + "/" + XMLUtils.getElementNameForClass(acmd);
+    }
+
     /**
      * Gets the node that holds elements for the class
      * @param doc the document to get the node from
@@ -457,7 +674,8 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
         else
         {
             // Test for existence of XPath expression, and create whole hierarchy as necessary
-            if (xpath.evaluate(expression, doc, XPathConstants.NODE) == null)
+            classnode = XMLUtils.getContainerForClass(doc, acmd);
+            if (classnode == null)
             {
                 StringTokenizer xpathElement = new StringTokenizer(expression, "/");
                 StringBuilder path = new StringBuilder();
@@ -467,7 +685,7 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
                 {
                     currentelement = xpathElement.nextToken();
                     path.append("/").append(currentelement);
-                    Node n = (Node) xpath.evaluate(path.toString(), doc, XPathConstants.NODE);
+                    Node n = (Node) XMLUtils.getXPathCache().evaluate(path.toString(), doc, XPathConstants.NODE);
                     if (n == null)
                     {
                         node = node.appendChild(doc.createElement(currentelement));
@@ -477,10 +695,11 @@ public class XMLPersistenceHandler extends AbstractPersistenceHandler
                         node = n;
                     }
                 }
-            }
 
-            // Get Node for persisting Objects
-            classnode = (Node) xpath.evaluate(expression, doc, XPathConstants.NODE);
+                // Get Node for persisting Objects
+                XMLDocumentIndex.getIndex(doc).containersAdded();
+                classnode = XMLUtils.getContainerForClass(doc, acmd);
+            }
         }
         return classnode;
     }
@@ -19,47 +19,51 @@ Contributors :
 ***********************************************************************/
 package org.datanucleus.store.xml;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.PersistenceNucleusContext;
+import org.datanucleus.PropertyNames;
 import org.datanucleus.exceptions.ClassNotResolvedException;
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.AbstractMemberMetaData;
-import org.datanucleus.metadata.FieldRole;
 import org.datanucleus.metadata.MetaDataListener;
 import org.datanucleus.metadata.MetaDataManager;
 import org.datanucleus.metadata.QueryLanguage;
+import org.datanucleus.metadata.RelationType;
 import org.datanucleus.store.AbstractStoreManager;
+import org.datanucleus.store.BackedSCOStoreManager;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.query.Query;
+import org.datanucleus.store.types.scostore.Store;
 import org.datanucleus.store.valuegenerator.AbstractConnectedGenerator;
 import org.datanucleus.store.valuegenerator.ValueGenerationConnectionProvider;
 import org.datanucleus.store.valuegenerator.ValueGenerator;
+import org.datanucleus.store.xml.codec.DOMCodecHandler;
 import org.datanucleus.store.xml.query.JDOQLQuery;
 import org.datanucleus.store.xml.query.JPQLQuery;
+import org.datanucleus.store.xml.scostore.XMLCollectionStore;
 import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
-import org.w3c.dom.Document;
 
 /**
  * Manager for XML datastores.
  * Relies on JAXB API and an implementation of JAXB to be present.
  */
-public class XMLStoreManager extends AbstractStoreManager
+public class XMLStoreManager extends AbstractStoreManager implements BackedSCOStoreManager
 {
     static
     {
@@ -68,10 +72,36 @@ public class XMLStoreManager extends AbstractStoreManager
 
     public static final String JAXB_HANDLER_CLASS_PROPERTY = "datanucleus.xml.jaxbhandlerclass";
     public static final String XML_INDENT_SIZE_PROPERTY = "datanucleus.xml.indentsize";
+    public static final String XML_WRITER_PROPERTY = "datanucleus.xml.writer";
+    public static final String MARSHALLER_POOL_SIZE_PROPERTY = "datanucleus.xml.marshallerpoolsize";
+    public static final String DOCUMENT_CACHE_PROPERTY = "datanucleus.xml.documentcache";
+    public static final String DOCUMENT_CACHE_CHECKSUM_PROPERTY = "datanucleus.xml.documentcache.checksum";
+    public static final String JOURNAL_PROPERTY = "datanucleus.xml.journal";
+    public static final String JOURNAL_COMPACTION_THRESHOLD_PROPERTY = "datanucleus.xml.journal.compactionthreshold";
+    public static final String LAZY_COLLECTIONS_PROPERTY = "datanucleus.xml.lazycollections";
+    public static final String LAZY_COLLECTIONS_BATCH_SIZE_PROPERTY = "datanucleus.xml.lazycollections.batchsize";
+    public static final String QUERY_STREAMING_PROPERTY = "datanucleus.xml.query.streaming";
+    public static final String FIELD_CODEC_PROPERTY = "datanucleus.xml.fieldcodec";
 
     JAXBHandler jaxbHandler;
+
+    /**
+     * Codec used to read/update individual fields directly in the XML. This is the JAXBHandler itself when that is a
+     * DOMCodecHandler, otherwise it is only used when enabled by the "datanucleus.xml.fieldCodec" property, since it ignores
+     * any JAXB annotations of the classes (null when not used).
+     */
+    DOMCodecHandler codecHandler;
     MetaDataListener metadataListener;
 
+    /** Cache of parsed documents, shared by all connections. */
+    XMLDocumentCache documentCache;
+
+    /** Journals keyed by the XML file they are for, when using journalling. */
+    Map<File, XMLJournal> journals = new HashMap<>();
+
+    /** Backing stores for lazy loaded collection fields, keyed by the field name. */
+    Map<String, XMLCollectionStore> backingStores = new ConcurrentHashMap<>();
+
     /**
      * Constructor.
      * @param clr ClassLoader resolver
@@ -96,8 +126,19 @@ public class XMLStoreManager extends AbstractStoreManager
             throw new NucleusUserException("The specified JAXB Handler class \"" + jaxbHandlerClassName + "\" was not found!").setFatal();
         }
 
+        if (jaxbHandler instanceof DOMCodecHandler)
+        {
+            codecHandler = (DOMCodecHandler)jaxbHandler;
+        }
+        else if (getBooleanProperty(FIELD_CODEC_PROPERTY))
+        {
+            codecHandler = new DOMCodecHandler(ctx.getMetaDataManager());
+        }
+
+        documentCache = new XMLDocumentCache(getBooleanProperty(DOCUMENT_CACHE_PROPERTY, true), getBooleanProperty(DOCUMENT_CACHE_CHECKSUM_PROPERTY));
+
         // Handler for metadata
-        metadataListener = new XMLMetaDataListener();
+        metadataListener = new XMLMetaDataListener(this);
         ctx.getMetaDataManager().registerListener(metadataListener);
 
         // Handler for persistence process
@@ -113,6 +154,7 @@ public class XMLStoreManager extends AbstractStoreManager
     {
         nucleusContext.getMetaDataManager().deregisterListener(metadataListener);
         super.close();
+        documentCache.clear();
     }
 
     /* (non-Javadoc)
@@ -171,6 +213,84 @@ public class XMLStoreManager extends AbstractStoreManager
         return jaxbHandler;
     }
 
+    /**
+     * Accessor for the codec handler, for reading/writing individual fields of objects directly from/to the XML.
+     * @return The codec handler (or null if objects are only read/written as a whole via the JAXBHandler)
+     */
+    public DOMCodecHandler getCodecHandler()
+    {
+        return codecHandler;
+    }
+
+    public XMLDocumentCache getDocumentCache()
+    {
+        return documentCache;
+    }
+
+    /**
+     * Accessor for the journal to use for the specified XML file.
+     * @param file The XML file
+     * @return The journal, or null if not using journalling
+     */
+    public synchronized XMLJournal getJournal(File file)
+    {
+        if (!getBooleanProperty(JOURNAL_PROPERTY))
+        {
+            return null;
+        }
+
+        XMLJournal journal = journals.get(file);
+        if (journal == null)
+        {
+            journal = new XMLJournal(file, getIntProperty(JOURNAL_COMPACTION_THRESHOLD_PROPERTY));
+            journals.put(file, journal);
+        }
+        return journal;
+    }
+
+    /**
+     * Whether to use a lazy loading (backed) wrapper for the specified member. This is the case for one-to-many collection
+     * fields when the persistence property "datanucleus.xml.lazyCollections" is set, as long as the wrapper caches its
+     * elements and operations are not queued (since the collection is only written as part of its owner).
+     * @param mmd Metadata for the member
+     * @param ec ExecutionContext
+     * @return Whether to use a backed wrapper
+     */
+    @Override
+    public boolean useBackedSCOWrapperForMember(AbstractMemberMetaData mmd, ExecutionContext ec)
+    {
+        if (!getBooleanProperty(LAZY_COLLECTIONS_PROPERTY) || !mmd.hasCollection() || mmd.getEmbeddedMetaData() != null ||
+            mmd.isSerialized() || ec.isDelayDatastoreOperationsEnabled())
+        {
+            return false;
+        }
+        RelationType relationType = mmd.getRelationType(ec.getClassLoaderResolver());
+        if (relationType != RelationType.ONE_TO_MANY_UNI && relationType != RelationType.ONE_TO_MANY_BI)
+        {
+            return false;
+        }
+
+        if (mmd.getContainer().hasExtension("cache"))
+        {
+            return Boolean.parseBoolean(mmd.getContainer().getValueForExtension("cache"));
+        }
+        Boolean useCache = ec.getBooleanProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS);
+        return (useCache != null ? useCache : getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.BackedSCOStoreManager#getBackingStoreForField(org.datanucleus.ClassLoaderResolver, org.datanucleus.metadata.AbstractMemberMetaData, java.lang.Class)
+     */
+    @Override
+    public Store getBackingStoreForField(ClassLoaderResolver clr, AbstractMemberMetaData mmd, Class type)
+    {
+        if (!mmd.hasCollection())
+        {
+            return null;
+        }
+        return backingStores.computeIfAbsent(mmd.getFullFieldName(), k -> new XMLCollectionStore(this, mmd, getIntProperty(LAZY_COLLECTIONS_BATCH_SIZE_PROPERTY)));
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.AbstractStoreManager#getClassNameForObjectID(java.lang.Object, org.datanucleus.ClassLoaderResolver, org.datanucleus.ExecutionContext)
      */
@@ -205,7 +325,7 @@ public class XMLStoreManager extends AbstractStoreManager
      * Method to return which of the possible class names for an identity corresponds to an object in the datastore. 
      * ONLY SUPPORTS SINGLE-FIELD IDENTITY.
      * @param ec execution context
-     * @param possibleNames The possible class names of the object
+     * @param possibleNames The possible class names of the object (the first being the class that the others are subclasses of)
      * @param id The identity
      * @return The class name of the object it corresponds to
      */
@@ -214,43 +334,13 @@ public class XMLStoreManager extends AbstractStoreManager
         ManagedConnection mconn = connectionMgr.getConnection(ec);
         try
         {
-            Document doc = (Document) mconn.getConnection();
-
             ClassLoaderResolver clr = ec.getClassLoaderResolver();
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            StringBuilder expression = null;
-            for (int i=0;i<possibleNames.length;i++)
+            AbstractClassMetaData acmd = getMetaDataManager().getMetaDataForClass(possibleNames[0], clr);
+            AbstractClassMetaData cmd = XMLUtils.findMetaDataForNode(mconn, acmd, getMetaDataManager(),
+                IdentityUtils.getTargetKeyForSingleFieldIdentity(id).toString(), clr);
+            if (cmd != null && Arrays.asList(possibleNames).contains(cmd.getFullClassName()))
             {
-                // Try to find an object of this possible class with the id
-                AbstractClassMetaData acmd = getMetaDataManager().getMetaDataForClass(possibleNames[i], clr);
-                expression = new StringBuilder();
-                expression.append(XMLUtils.getXPathForClass(acmd));
-                if (expression.length() == 0)
-                {
-                    if (doc.getDocumentElement() != null)
-                    {
-                        expression.append("/" + doc.getDocumentElement().getNodeName());
-                    }
-                    else
-                    {
-                        // No root, so can't have an object
-                        continue;
-                    }
-                }
-                expression.append('/').append(XMLUtils.getElementNameForClass(acmd));
-                String[] pk = acmd.getPrimaryKeyMemberNames();
-                for (int j=0; j<pk.length; j++)
-                {
-                    AbstractMemberMetaData pkmmd = acmd.getMetaDataForMember(pk[j]);
-                    String pkElement = XMLUtils.getElementNameForMember(pkmmd, FieldRole.ROLE_FIELD);
-                    Object obj = IdentityUtils.getTargetKeyForSingleFieldIdentity(id);
-                    expression.append('/').append(pkElement).append("/text()='").append(obj.toString()).append("'"); 
-                }
-
-                if ((Boolean)xpath.evaluate(expression.toString(), doc, XPathConstants.BOOLEAN))
-                {
-                    return possibleNames[i];
-                }
+                return cmd.getFullClassName();
             }
         }
         catch (Exception e)
@@ -17,9 +17,11 @@
  **********************************************************************/
 package org.datanucleus.store.xml;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.xpath.XPathExpressionException;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
@@ -38,9 +40,12 @@ import org.datanucleus.metadata.MetaDataManager;
 import org.datanucleus.metadata.RelationType;
 import org.datanucleus.metadata.ValueMetaData;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.xml.ConnectionFactoryImpl.ManagedConnectionImpl;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
@@ -48,7 +53,20 @@ import org.w3c.dom.Node;
  */
 public class XMLUtils
 {
-    private static XPath xpath = XPathFactory.newInstance().newXPath();
+    /** Class extension for the number of files (partitions) to hash the objects of the class across, when using a directory. */
+    public static final String EXTENSION_PARTITIONS = "partitions";
+
+    /** Cache of compiled XPath expressions. */
+    private static final XPathExpressionCache xpathCache = new XPathExpressionCache();
+
+    /**
+     * Accessor for the cache of compiled XPath expressions, to use for any XPath evaluation.
+     * @return The XPath expression cache
+     */
+    public static XPathExpressionCache getXPathCache()
+    {
+        return xpathCache;
+    }
 
     /**
      * Convenience method to take an object returned by XML (from a query for example), and prepare it for passing to
@@ -102,90 +120,90 @@ public class XMLUtils
 
     /**
      * Accessor for correct inheritance level of an object with a specified PK field value.
-     * @param doc The document
+     * @param mconn Connection to the datastore
      * @param acmd Metadata for the class to start from
      * @param mmgr Metadata manager
      * @param value value of PK field to search for
      * @param clr ClassLoader resolver
      * @return Metadata for the class that this is an instance of.
      */
-    public static AbstractClassMetaData findMetaDataForNode(Document doc, AbstractClassMetaData acmd, MetaDataManager mmgr, String value, ClassLoaderResolver clr)
+    public static AbstractClassMetaData findMetaDataForNode(ManagedConnection mconn, AbstractClassMetaData acmd, MetaDataManager mmgr, String value, ClassLoaderResolver clr)
+    {
+        AbstractClassMetaData[] cmds = new AbstractClassMetaData[1];
+        findElementsForKeys(mconn, acmd, mmgr, new String[] {value}, clr, cmds);
+        return cmds[0];
+    }
+
+    /**
+     * Accessor for the elements of the objects with the specified PK field values, where each object can be of the specified
+     * class or any of its subclasses. Uses the {@link XMLDocumentIndex.ClassIndex} of the class in each document that could
+     * hold the object, so each value is resolved to its element and concrete class with a hash lookup.
+     * @param mconn Connection to the datastore
+     * @param acmd Metadata for the class to start from
+     * @param mmgr Metadata manager
+     * @param values values of PK field to search for
+     * @param clr ClassLoader resolver
+     * @param cmds Array (of the same length as the values) that is populated with the metadata for the class of each object
+     * @return The element for each value (null where no object was found)
+     */
+    public static Element[] findElementsForKeys(ManagedConnection mconn, AbstractClassMetaData acmd, MetaDataManager mmgr, String[] values,
+            ClassLoaderResolver clr, AbstractClassMetaData[] cmds)
     {
         if (acmd.getIdentityType() == IdentityType.DATASTORE)
         {
             throw new NucleusException(Localiser.msg("XML.DatastoreID"));
         }
-        else if (acmd.getIdentityType() == IdentityType.APPLICATION)
+
+        Element[] elements = new Element[values.length];
+        if (acmd.getIdentityType() == IdentityType.APPLICATION)
         {
-            try
+            List<AbstractClassMetaData> classCmds = new ArrayList<>();
+            classCmds.add(acmd);
+            String[] subclassNames = mmgr.getSubclassesForClass(acmd.getFullClassName(), true);
+            if (subclassNames != null)
             {
-                // Get the XPath for the objects of this class
-                String expression = XMLUtils.getXPathForClass(acmd);
-                if (expression == null)
-                {
-                    if (doc.getDocumentElement() != null)
-                    {
-                        expression = "/" + doc.getDocumentElement().getNodeName();
-                    }
-                    else
-                    {
-                        // Nothing in the document so no point searching!
-                        return null;
-                    }
-                }
-                expression += "/" + XMLUtils.getElementNameForClass(acmd);
-                String[] pk = acmd.getPrimaryKeyMemberNames();
-                for (int i = 0; i < pk.length; i++)
+                for (String subclassName : subclassNames)
                 {
-                    AbstractMemberMetaData pkmmd = acmd.getMetaDataForMember(pk[i]);
-                    String pkElement = XMLUtils.getElementNameForMember(pkmmd, FieldRole.ROLE_FIELD);
-                    expression += "/" + pkElement + "[text()='" + value + "']";
+                    classCmds.add(mmgr.getMetaDataForClass(subclassName, clr));
                 }
-                expression += "/..";
+            }
 
-                Node node = (Node) xpath.evaluate(expression, doc, XPathConstants.NODE);
-                if (node == null)
+            try
+            {
+                int numKeys = acmd.getPKMemberPositions().length;
+                for (int i = 0; i < values.length; i++)
                 {
-                    String[] classNames = mmgr.getSubclassesForClass(acmd.getFullClassName(), false);
-                    if (classNames != null)
+                    String[] keyValues = new String[numKeys];
+                    Arrays.fill(keyValues, values[i]);
+                    for (Document doc : ((ManagedConnectionImpl)mconn).getDocumentsForObject(classCmds, keyValues))
                     {
-                        for (int i = 0; i < classNames.length; i++)
+                        XMLDocumentIndex.ClassIndex classIndex = XMLDocumentIndex.getIndex(doc).getClassIndex(classCmds);
+                        Element element = classIndex.get(keyValues);
+                        if (element != null)
                         {
-                            AbstractClassMetaData nodeCmd = mmgr.getMetaDataForClass(classNames[i], clr);
-                            nodeCmd = findMetaDataForNode(doc, nodeCmd, mmgr, value, clr);
-                            if (nodeCmd != null)
-                            {
-                                return nodeCmd;
-                            }
+                            elements[i] = element;
+                            cmds[i] = classIndex.getMetaDataForElement(element);
+                            break;
                         }
                     }
                 }
-                else
-                {
-                    return acmd;
-                }
             }
-            catch (Exception e)
+            catch (XPathExpressionException e)
             {
                 throw new NucleusDataStoreException(e.getMessage(), e);
             }
         }
-        else
-        {
-            // Nondurable identity
-        }
-
-        return null;
+        return elements;
     }
 
     /**
      * Accessor for the Node with the specified identity (if present).
-     * @param doc The document
+     * @param mconn Connection to the datastore
      * @param sm StateManager
      * @return The object
      * @throws NucleusObjectNotFoundException if the document is null
      */
-    public static Node findNode(Document doc, DNStateManager sm)
+    public static Node findNode(ManagedConnection mconn, DNStateManager sm)
     {
         Node node = null;
 
@@ -204,29 +222,14 @@ public class XMLUtils
         {
             try
             {
+                String[] keyValues = getKeyValues(sm);
+                Document doc = ((ManagedConnectionImpl)mconn).getDocumentForObject(acmd, keyValues);
                 if (doc.getDocumentElement() == null)
                 {
                     // Nothing in the document so no point searching!
                     throw new NucleusObjectNotFoundException();
                 }
-                // Get the XPath for the objects of this class
-                String expression = XMLUtils.getXPathForClass(acmd);
-                if (expression == null)
-                {
-                    expression = "/" + doc.getDocumentElement().getNodeName();
-                }
-                expression += "/" + XMLUtils.getElementNameForClass(acmd);
-                String[] pk = acmd.getPrimaryKeyMemberNames();
-                for (int i = 0; i < pk.length; i++)
-                {
-                    AbstractMemberMetaData pkmmd = acmd.getMetaDataForMember(pk[i]);
-                    String pkElement = XMLUtils.getElementNameForMember(pkmmd, FieldRole.ROLE_FIELD);
-                    Object obj = sm.provideField(acmd.getPKMemberPositions()[i]);
-                    expression += "/" + pkElement + "[text()='" + obj.toString() + "']";
-                }
-                expression += "/..";
-
-                node = (Node) xpath.evaluate(expression, doc, XPathConstants.NODE);
+                node = findElementForKey(doc, acmd, keyValues);
             }
             catch (NucleusObjectNotFoundException e)
             {
@@ -249,6 +252,115 @@ public class XMLUtils
         return node;
     }
 
+    /**
+     * Accessor for the element of the object of the specified class with the specified primary key value(s), looking in
+     * the document (partition) that would hold that object.
+     * @param mconn Connection to the datastore
+     * @param acmd Metadata for the class
+     * @param keyValues Values of the primary key element(s), in the order of the primary key members
+     * @return The element (or null if not present)
+     * @throws XPathExpressionException if the XPath of the class is invalid
+     */
+    public static Element findElementForKey(ManagedConnection mconn, AbstractClassMetaData acmd, String[] keyValues) throws XPathExpressionException
+    {
+        return findElementForKey(((ManagedConnectionImpl)mconn).getDocumentForObject(acmd, keyValues), acmd, keyValues);
+    }
+
+    /**
+     * Accessor for the element of the object of the specified class with the specified primary key value(s), using the
+     * in-memory index of the document.
+     * @param doc The document
+     * @param acmd Metadata for the class
+     * @param keyValues Values of the primary key element(s), in the order of the primary key members
+     * @return The element (or null if not present)
+     * @throws XPathExpressionException if the XPath of the class is invalid
+     */
+    public static Element findElementForKey(Document doc, AbstractClassMetaData acmd, String[] keyValues) throws XPathExpressionException
+    {
+        Node container = getContainerForClass(doc, acmd);
+        if (container == null)
+        {
+            return null;
+        }
+        return XMLDocumentIndex.getIndex(doc).get(container, getElementNameForClass(acmd), getPrimaryKeyElementNames(acmd), keyValues);
+    }
+
+    /**
+     * Accessor for the (existing) node that contains the objects of the specified class. The container is cached against the
+     * document, see {@link XMLDocumentIndex#getContainer(AbstractClassMetaData)}.
+     * @param doc The document
+     * @param acmd Metadata for the class
+     * @return The container node (or null if not present in the document)
+     * @throws XPathExpressionException if the XPath of the class is invalid
+     */
+    public static Node getContainerForClass(Document doc, AbstractClassMetaData acmd) throws XPathExpressionException
+    {
+        return XMLDocumentIndex.getIndex(doc).getContainer(acmd);
+    }
+
+    /**
+     * Accessor for the primary key value(s) of the object managed by the StateManager, in the form stored in the XML.
+     * @param sm StateManager
+     * @return Values of the primary key element(s), in the order of the primary key members
+     */
+    public static String[] getKeyValues(DNStateManager sm)
+    {
+        int[] pkPositions = sm.getClassMetaData().getPKMemberPositions();
+        String[] keyValues = new String[pkPositions.length];
+        for (int i = 0; i < pkPositions.length; i++)
+        {
+            keyValues[i] = sm.provideField(pkPositions[i]).toString();
+        }
+        return keyValues;
+    }
+
+    /**
+     * Accessor for the names of the XML elements that hold the primary key value(s) of objects of the specified class.
+     * The returned array is shared, so must not be modified.
+     * @param acmd Metadata for the class
+     * @return Names of the primary key elements
+     */
+    public static String[] getPrimaryKeyElementNames(AbstractClassMetaData acmd)
+    {
+        return XMLClassMapping.getMapping(acmd).getPrimaryKeyElementNames();
+    }
+
+    /**
+     * Accessor for the value of a key of the object represented by this element, taken from the child element with the
+     * key name, otherwise the attribute with that name.
+     * @param element The element for the object
+     * @param keyName Name of the key element (or attribute)
+     * @return The value (or null if not present)
+     */
+    public static String getKeyValue(Element element, String keyName)
+    {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof Element && child.getNodeName().equals(keyName))
+            {
+                return child.getTextContent();
+            }
+        }
+        return element.hasAttribute(keyName) ? element.getAttribute(keyName) : null;
+    }
+
+    /**
+     * Convenience accessor for the last child element of a node, for example the element just marshalled into it.
+     * @param node The node
+     * @return The last child element (or null if none)
+     */
+    public static Element getLastChildElement(Node node)
+    {
+        for (Node child = node.getLastChild(); child != null; child = child.getPreviousSibling())
+        {
+            if (child instanceof Element)
+            {
+                return (Element)child;
+            }
+        }
+        return null;
+    }
+
     /**
      * Method to return the type of the XML element to use for the specified field/property.
      * Null implies no value defined
@@ -278,19 +390,24 @@ public class XMLUtils
     }
 
     /**
-     * Method to return the XPath where the specified class is located in the XML file. 
-     * Firstly tries "xpath" extension on the class, otherwise uses the "schema" for the class, or package, 
-     * or file. If no definition is found returns null.
+     * Method to return the XPath where the specified class is located in the XML file (see {@link XMLClassMapping}).
      * @param cmd Metadata for the class
      * @return The XPath name
      */
     public static String getXPathForClass(AbstractClassMetaData cmd)
     {
-        if (cmd == null)
-        {
-            return null;
-        }
+        return cmd != null ? XMLClassMapping.getMapping(cmd).getXPath() : null;
+    }
 
+    /**
+     * Method to resolve the XPath where the specified class is located in the XML file from its metadata. 
+     * Firstly tries "xpath" extension on the class, otherwise uses the "schema" for the class, or package, 
+     * or file. If no definition is found returns null.
+     * @param cmd Metadata for the class
+     * @return The XPath name
+     */
+    static String resolveXPathForClass(AbstractClassMetaData cmd)
+    {
         if (cmd.hasExtension("xpath"))
         {
             return cmd.getValueForExtension("xpath");
@@ -321,19 +438,25 @@ public class XMLUtils
     }
 
     /**
-     * Method to return the name of the XML element where we store the objects of the specified type. Uses "name"
-     * extension on the class, otherwise the table name for the class, otherwise tries to respect inheritance strategy
-     * settings, otherwise uses the lowercase form of the class name.
+     * Method to return the name of the XML element where we store the objects of the specified type
+     * (see {@link XMLClassMapping}).
      * @param cmd Metadata for the class
      * @return Name of the XML element where we store objects of this type
      */
     public static String getElementNameForClass(AbstractClassMetaData cmd)
     {
-        if (cmd == null)
-        {
-            return null;
-        }
+        return cmd != null ? XMLClassMapping.getMapping(cmd).getElementName() : null;
+    }
 
+    /**
+     * Method to resolve the name of the XML element where we store the objects of the specified type from its metadata. Uses
+     * "name" extension on the class, otherwise the table name for the class, otherwise tries to respect inheritance strategy
+     * settings, otherwise uses the lowercase form of the class name.
+     * @param cmd Metadata for the class
+     * @return Name of the XML element where we store objects of this type
+     */
+    static String resolveElementNameForClass(AbstractClassMetaData cmd)
+    {
         if (cmd.hasExtension("name"))
         {
             return cmd.getValueForExtension("name");
@@ -362,7 +485,27 @@ public class XMLUtils
     }
 
     /**
-     * Method to return the name of the XML element to use for the specified field/property.
+     * Method to return the name of the XML element to use for the specified field/property (see {@link XMLClassMapping}).
+     * Members of embedded objects are resolved from their metadata each time.
+     * @param mmd Metadata for the field/property
+     * @param role Role within this field
+     * @return The name
+     */
+    public static String getElementNameForMember(AbstractMemberMetaData mmd, FieldRole role)
+    {
+        if (mmd.getParent() instanceof AbstractClassMetaData)
+        {
+            String name = XMLClassMapping.getMapping((AbstractClassMetaData)mmd.getParent()).getElementNameForMember(mmd.getAbsoluteFieldNumber(), role);
+            if (name != null)
+            {
+                return name;
+            }
+        }
+        return resolveElementNameForMember(mmd, role);
+    }
+
+    /**
+     * Method to resolve the name of the XML element to use for the specified field/property from its metadata.
      * Tries the extension "name" for the component being named, otherwise uses the column name, 
      * otherwise falls back to the JAXB default (if a field), or a predefined default if a component of 
      * a collection/array/map.
@@ -370,7 +513,7 @@ public class XMLUtils
      * @param role Role within this field
      * @return The name
      */
-    public static String getElementNameForMember(AbstractMemberMetaData mmd, FieldRole role)
+    static String resolveElementNameForMember(AbstractMemberMetaData mmd, FieldRole role)
     {
         if (role == FieldRole.ROLE_COLLECTION_ELEMENT && mmd.hasCollection())
         {
@@ -0,0 +1,163 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.datanucleus.metadata.AbstractClassMetaData;
+
+/**
+ * Cache of compiled XPath expressions, so that an expression is parsed once and then evaluated for every document/object.
+ * Expressions are cached by their string form, and the expression for the container element of the objects of a class is
+ * also cached against the metadata of the class, so doesn't need its string forming on each use.
+ * <p>
+ * A compiled XPathExpression is not thread-safe, so evaluation of each expression is synchronized on the expression.
+ * </p>
+ */
+public class XPathExpressionCache
+{
+    /** Maximum number of expressions cached by string form. The cache is cleared when this is exceeded. */
+    private static final int MAX_EXPRESSIONS = 1000;
+
+    private final XPath xpath;
+
+    /** Compiled expressions keyed by their string form. */
+    private final Map<String, XPathExpression> expressions = new ConcurrentHashMap<>();
+
+    /** Compiled container expressions, keyed by the class metadata (weakly, so released when the metadata is). */
+    private final Map<AbstractClassMetaData, XPathExpression> classExpressions = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public XPathExpressionCache()
+    {
+        xpath = XPathFactory.newInstance().newXPath();
+    }
+
+    /**
+     * Method to evaluate the specified expression.
+     * @param expression The XPath expression
+     * @param item The context item (e.g document)
+     * @param returnType Type of result required (see XPathConstants)
+     * @return The result
+     * @throws XPathExpressionException if the expression is invalid
+     */
+    public Object evaluate(String expression, Object item, QName returnType) throws XPathExpressionException
+    {
+        return evaluate(getExpression(expression), item, returnType);
+    }
+
+    /**
+     * Method to evaluate the expression for the container element of the objects of a class.
+     * @param cmd Metadata for the class
+     * @param item The context item (e.g document)
+     * @param returnType Type of result required (see XPathConstants)
+     * @return The result
+     * @throws XPathExpressionException if the expression is invalid
+     */
+    public Object evaluate(AbstractClassMetaData cmd, Object item, QName returnType) throws XPathExpressionException
+    {
+        return evaluate(getExpression(cmd), item, returnType);
+    }
+
+    /**
+     * Method to clear all cached expressions, for example when metadata is loaded.
+     */
+    public void clear()
+    {
+        expressions.clear();
+        classExpressions.clear();
+    }
+
+    /**
+     * Accessor for the compiled form of the specified expression, compiling it if not yet cached.
+     * @param expression The XPath expression
+     * @return The compiled expression
+     * @throws XPathExpressionException if the expression is invalid
+     */
+    public XPathExpression getExpression(String expression) throws XPathExpressionException
+    {
+        XPathExpression expr = expressions.get(expression);
+        if (expr == null)
+        {
+            expr = compile(expression);
+            if (expressions.size() >= MAX_EXPRESSIONS)
+            {
+                expressions.clear();
+            }
+            expressions.put(expression, expr);
+        }
+        return expr;
+    }
+
+    /**
+     * Accessor for the compiled expression for the container element of the objects of a class.
+     * @param cmd Metadata for the class
+     * @return The compiled expression
+     * @throws XPathExpressionException if the expression is invalid
+     */
+    public XPathExpression getExpression(AbstractClassMetaData cmd) throws XPathExpressionException
+    {
+        XPathExpression expr = classExpressions.get(cmd);
+        if (expr == null)
+        {
+            expr = getExpression(getExpressionString(cmd));
+            classExpressions.put(cmd, expr);
+        }
+        return expr;
+    }
+
+    /**
+     * Accessor for the string form of the expression for the container element of the objects of a class.
+     * @param cmd Metadata for the class
+     * @return The XPath expression
+     */
+    public static String getExpressionString(AbstractClassMetaData cmd)
+    {
+        String container = XMLUtils.getXPathForClass(cmd);
+        if (container == null)
+        {
+            // Stored directly under the root element, whatever its name
+            container = "/*";
+        }
+        return container;
+    }
+
+    private XPathExpression compile(String expression) throws XPathExpressionException
+    {
+        synchronized (xpath)
+        {
+            return xpath.compile(expression);
+        }
+    }
+
+    private Object evaluate(XPathExpression expr, Object item, QName returnType) throws XPathExpressionException
+    {
+        synchronized (expr)
+        {
+            return expr.evaluate(item, returnType);
+        }
+    }
+}
@@ -0,0 +1,952 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.codec;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeSet;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.enhancement.Persistable;
+import org.datanucleus.enhancement.StateManager;
+import org.datanucleus.enhancer.EnhancementHelper;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.FieldPersistenceModifier;
+import org.datanucleus.metadata.FieldRole;
+import org.datanucleus.metadata.RelationType;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.types.TypeManager;
+import org.datanucleus.store.xml.XMLUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Converter between the objects of a persistable class and their XML elements, derived directly from the metadata of the
+ * class. The XML is the same as that of the JAXB reference implementation with the annotations that JAXBRIAnnotationReader
+ * generates, namely
+ * <ul>
+ * <li>the object is an element named as per {@link XMLUtils#getElementNameForClass(AbstractClassMetaData)}</li>
+ * <li>each persistent member is a child element named as per {@link XMLUtils#getElementNameForMember(AbstractMemberMetaData, FieldRole)},
+ * in the declaration order of the fields (superclass fields first), or is an attribute when it has the "XmlAttribute" extension.
+ * A null value is omitted.</li>
+ * <li>a collection/array is a wrapper element containing an element for each item</li>
+ * <li>a (non-embedded) related object is represented by the value of its primary key field, and is not set when read back
+ * (the related object is found from that value when the field is fetched)</li>
+ * <li>an embedded related object is a child element containing the members of that object</li>
+ * </ul>
+ * Field values are provided/replaced via the enhancement contract, using the StateManager of the object where it has one, and
+ * a {@link FieldValueStateManager} otherwise. Mappings that need JAXB specifics (the "XmlElementRef" and "namespace" extensions)
+ * and Map members are not supported.
+ */
+public class ClassCodec
+{
+    /** Implementations tried, in order, for a collection member whose declared type cannot be instantiated (as JAXB does). */
+    private static final Class[] COLLECTION_IMPL_TYPES = {ArrayList.class, LinkedList.class, HashSet.class, TreeSet.class, Stack.class};
+
+    /** Representation of a member in the XML. */
+    enum Kind
+    {
+        VALUE,
+        VALUE_COLLECTION,
+        VALUE_ARRAY,
+        REFERENCE,
+        REFERENCE_COLLECTION,
+        REFERENCE_ARRAY,
+        EMBEDDED
+    }
+
+    private final DOMCodecHandler handler;
+
+    private final ClassLoaderResolver clr;
+
+    private final Class cls;
+
+    private final AbstractClassMetaData cmd;
+
+    private final String elementName;
+
+    /** Members stored as attributes of the element for the object. */
+    private final MemberCodec[] attributes;
+
+    /** Members stored as child elements of the element for the object, in document order. */
+    private final MemberCodec[] elements;
+
+    /** Members stored as child elements, keyed by element name. */
+    private final Map<String, MemberCodec> elementsByName;
+
+    /** Members stored in the XML, indexed by absolute field number (null for any other field). */
+    private final MemberCodec[] membersByFieldNumber;
+
+    /** Codec for the primary key member when there is a single one, otherwise null. */
+    private final MemberCodec keyMember;
+
+    /**
+     * Constructor, deriving the mapping of the class from its metadata.
+     * @param handler The handler, providing the codecs of related classes
+     * @param cls The class
+     * @param cmd Metadata for the class
+     * @param clr ClassLoader resolver
+     * @param typeMgr Type manager
+     */
+    public ClassCodec(DOMCodecHandler handler, Class cls, AbstractClassMetaData cmd, ClassLoaderResolver clr, TypeManager typeMgr)
+    {
+        this.handler = handler;
+        this.clr = clr;
+        this.cls = cls;
+        this.cmd = cmd;
+        this.elementName = XMLUtils.getElementNameForClass(cmd);
+        if (cmd.hasExtension("namespace"))
+        {
+            throw new NucleusUserException("Class " + cmd.getFullClassName() + " has extension \"namespace\" which is not supported by " +
+                DOMCodecHandler.class.getSimpleName());
+        }
+
+        // Make sure the class is initialised, so registered with the enhancement helper for new instances
+        try
+        {
+            Class.forName(cls.getName(), true, cls.getClassLoader());
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new NucleusException("Unable to initialise class " + cls.getName(), e);
+        }
+
+        List<MemberCodec> attributeList = new ArrayList<>();
+        List<MemberCodec> elementList = new ArrayList<>();
+        for (AbstractMemberMetaData mmd : getMembersInDocumentOrder(cmd, clr))
+        {
+            MemberCodec member = new MemberCodec(mmd, clr, typeMgr);
+            if (member.attribute)
+            {
+                attributeList.add(member);
+            }
+            else
+            {
+                elementList.add(member);
+            }
+        }
+        this.attributes = attributeList.toArray(new MemberCodec[attributeList.size()]);
+        this.elements = elementList.toArray(new MemberCodec[elementList.size()]);
+        this.elementsByName = new HashMap<>();
+        for (MemberCodec member : elements)
+        {
+            elementsByName.putIfAbsent(member.name, member);
+        }
+
+        this.membersByFieldNumber = new MemberCodec[cmd.getMemberCount()];
+        for (MemberCodec member : concat(attributes, elements))
+        {
+            membersByFieldNumber[member.fieldNumber] = member;
+        }
+
+        MemberCodec pkMember = null;
+        int[] pkPositions = cmd.getPKMemberPositions();
+        if (pkPositions != null && pkPositions.length == 1)
+        {
+            for (MemberCodec member : concat(attributes, elements))
+            {
+                if (member.fieldNumber == pkPositions[0])
+                {
+                    pkMember = member;
+                }
+            }
+        }
+        this.keyMember = pkMember;
+    }
+
+    /**
+     * Accessor for the metadata of the class.
+     * @return The metadata
+     */
+    public AbstractClassMetaData getClassMetaData()
+    {
+        return cmd;
+    }
+
+    /**
+     * Method to create the element for the object and append it to the parent node.
+     * @param pc The object
+     * @param parent The node to append it to
+     * @return The element for the object
+     */
+    public Element marshall(Persistable pc, Node parent)
+    {
+        Document doc = (parent.getNodeType() == Node.DOCUMENT_NODE ? (Document)parent : parent.getOwnerDocument());
+        Element element = doc.createElement(elementName);
+        writeMembers(pc, element, doc);
+        parent.appendChild(element);
+        return element;
+    }
+
+    /**
+     * Method to update the element for a (managed) object with the current values of the specified fields, changing only the
+     * attributes/child elements of those fields. A child element is replaced where it is, and a new child element is inserted
+     * at its position in the document order of the members, so the element is the same as that produced by
+     * {@link #marshall(Persistable, Node)}.
+     * @param pc The object
+     * @param element The element for the object
+     * @param fieldNumbers Absolute numbers of the fields to update
+     */
+    public void updateFields(Persistable pc, Element element, int[] fieldNumbers)
+    {
+        Document doc = element.getOwnerDocument();
+        for (int fieldNumber : fieldNumbers)
+        {
+            MemberCodec member = (fieldNumber < membersByFieldNumber.length ? membersByFieldNumber[fieldNumber] : null);
+            if (member == null)
+            {
+                continue;
+            }
+
+            Object value = provideField(pc, null, fieldNumber);
+            if (member.attribute)
+            {
+                if (value != null)
+                {
+                    element.setAttribute(member.name, member.valueCodec.toText(value));
+                }
+                else
+                {
+                    element.removeAttribute(member.name);
+                }
+                continue;
+            }
+
+            Element existing = getLastChildElement(element, member.name);
+            if (value != null)
+            {
+                Element child = doc.createElement(member.name);
+                writeValue(member, value, child, doc);
+                if (existing != null)
+                {
+                    element.replaceChild(child, existing);
+                }
+                else
+                {
+                    element.insertBefore(child, getNextMemberElement(element, member));
+                }
+            }
+            else if (existing != null)
+            {
+                element.removeChild(existing);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the first child element of a member that follows the specified member in document order.
+     * @param element The element for the object
+     * @param member The member
+     * @return The child element, or null if no following member is present
+     */
+    private Element getNextMemberElement(Element element, MemberCodec member)
+    {
+        int position = Arrays.asList(elements).indexOf(member);
+        for (int i = position + 1; i < elements.length; i++)
+        {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(elements[i].name))
+                {
+                    return (Element)child;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method to create a new (unmanaged) object of this class with the members read from the element.
+     * @param element The element for the object
+     * @return The object
+     */
+    public Persistable unmarshall(Element element)
+    {
+        FieldValueStateManager fvsm = new FieldValueStateManager();
+        Persistable pc = EnhancementHelper.getInstance().newInstance(cls, fvsm);
+        try
+        {
+            for (MemberCodec member : attributes)
+            {
+                Attr attr = element.getAttributeNode(member.name);
+                if (attr != null)
+                {
+                    fvsm.replaceField(pc, member.fieldNumber, member.valueCodec.fromText(attr.getValue()));
+                }
+            }
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    MemberCodec member = elementsByName.get(child.getNodeName());
+                    if (member != null && member.isRead())
+                    {
+                        Object current = (member.isCollection() ? fvsm.provideField(pc, member.fieldNumber) : null);
+                        fvsm.replaceField(pc, member.fieldNumber, readValue(member, (Element)child, current));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            fvsm.detach(pc);
+        }
+        return pc;
+    }
+
+    /**
+     * Method to read the value of a single field from the element for an object, converting only the element (or attribute)
+     * for that field. The value is the same as that of the field of the object returned by {@link #unmarshall(Element)}, so
+     * a field not present in the XML (or a relation field) has the value it is given by the constructor of the class.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public Object fetchField(Element element, int fieldNumber)
+    {
+        MemberCodec member = (fieldNumber < membersByFieldNumber.length ? membersByFieldNumber[fieldNumber] : null);
+        if (member != null && member.isRead())
+        {
+            if (member.attribute)
+            {
+                Attr attr = element.getAttributeNode(member.name);
+                if (attr != null)
+                {
+                    return member.valueCodec.fromText(attr.getValue());
+                }
+            }
+            else
+            {
+                Element child = getLastChildElement(element, member.name);
+                if (child != null)
+                {
+                    return readValue(member, child, member.isCollection() ? getInitialValue(fieldNumber) : null);
+                }
+            }
+        }
+        return getInitialValue(fieldNumber);
+    }
+
+    /**
+     * Method to read the value of a boolean field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public boolean fetchBooleanField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? ValueCodec.parseBoolean(text) : (Boolean)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a byte field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public byte fetchByteField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? Byte.parseByte(text.trim()) : (Byte)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a char field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public char fetchCharField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? (char)ValueCodec.parseInt(text) : (Character)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a double field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public double fetchDoubleField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? ValueCodec.parseDouble(text) : (Double)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a float field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public float fetchFloatField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? ValueCodec.parseFloat(text) : (Float)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of an int field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public int fetchIntField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? ValueCodec.parseInt(text) : (Integer)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a long field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public long fetchLongField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? ValueCodec.parseLong(text) : (Long)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Method to read the value of a short field from the element for an object, without boxing.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public short fetchShortField(Element element, int fieldNumber)
+    {
+        String text = getText(element, fieldNumber);
+        return (text != null ? Short.parseShort(text.trim()) : (Short)getInitialValue(fieldNumber));
+    }
+
+    /**
+     * Accessor for the text of the (single valued) field in the element for an object.
+     * @param element The element for the object
+     * @param fieldNumber Absolute number of the field
+     * @return The text, or null if the field is not present in the XML
+     */
+    private String getText(Element element, int fieldNumber)
+    {
+        MemberCodec member = (fieldNumber < membersByFieldNumber.length ? membersByFieldNumber[fieldNumber] : null);
+        if (member == null || member.kind != Kind.VALUE)
+        {
+            return null;
+        }
+        if (member.attribute)
+        {
+            Attr attr = element.getAttributeNode(member.name);
+            return (attr != null ? attr.getValue() : null);
+        }
+        Element child = getLastChildElement(element, member.name);
+        return (child != null ? child.getTextContent() : null);
+    }
+
+    /**
+     * Accessor for the last child element with the specified name, which is the one used when unmarshalling the whole object.
+     */
+    private static Element getLastChildElement(Element element, String name)
+    {
+        for (Node child = element.getLastChild(); child != null; child = child.getPreviousSibling())
+        {
+            if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(name))
+            {
+                return (Element)child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accessor for the value of a field of a newly constructed object of this class.
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    private Object getInitialValue(int fieldNumber)
+    {
+        FieldValueStateManager fvsm = new FieldValueStateManager();
+        Persistable pc = EnhancementHelper.getInstance().newInstance(cls, fvsm);
+        try
+        {
+            return fvsm.provideField(pc, fieldNumber);
+        }
+        finally
+        {
+            fvsm.detach(pc);
+        }
+    }
+
+    /**
+     * Accessor for the text form of the primary key of the supplied object of this class, as used to refer to it from
+     * other objects.
+     * @param pc The object
+     * @return The text of the primary key value (or null if not set)
+     */
+    public String getKeyText(Persistable pc)
+    {
+        if (keyMember == null)
+        {
+            throw new NucleusUserException("Class " + cmd.getFullClassName() + " is referred to by another object but does not have a single primary key field");
+        }
+
+        FieldValueStateManager fvsm = (pc.dnGetStateManager() == null ? new FieldValueStateManager() : null);
+        if (fvsm != null)
+        {
+            fvsm.attach(pc);
+        }
+        try
+        {
+            Object value = provideField(pc, fvsm, keyMember.fieldNumber);
+            return (value != null ? keyMember.valueCodec.toText(value) : null);
+        }
+        finally
+        {
+            if (fvsm != null)
+            {
+                fvsm.detach(pc);
+            }
+        }
+    }
+
+    private void writeMembers(Persistable pc, Element element, Document doc)
+    {
+        FieldValueStateManager fvsm = (pc.dnGetStateManager() == null ? new FieldValueStateManager() : null);
+        if (fvsm != null)
+        {
+            fvsm.attach(pc);
+        }
+        try
+        {
+            for (MemberCodec member : attributes)
+            {
+                Object value = provideField(pc, fvsm, member.fieldNumber);
+                if (value != null)
+                {
+                    element.setAttribute(member.name, member.valueCodec.toText(value));
+                }
+            }
+            for (MemberCodec member : elements)
+            {
+                Object value = provideField(pc, fvsm, member.fieldNumber);
+                if (value != null)
+                {
+                    Element child = doc.createElement(member.name);
+                    writeValue(member, value, child, doc);
+                    element.appendChild(child);
+                }
+            }
+        }
+        finally
+        {
+            if (fvsm != null)
+            {
+                fvsm.detach(pc);
+            }
+        }
+    }
+
+    private void writeValue(MemberCodec member, Object value, Element child, Document doc)
+    {
+        switch (member.kind)
+        {
+            case VALUE:
+                appendText(child, member.valueCodec.toText(value), doc);
+                break;
+            case VALUE_COLLECTION:
+                for (Object item : (Collection)value)
+                {
+                    appendItem(child, member.itemName, item != null ? member.valueCodec.toText(item) : null, doc);
+                }
+                break;
+            case VALUE_ARRAY:
+                for (int i = 0, length = Array.getLength(value); i < length; i++)
+                {
+                    Object item = Array.get(value, i);
+                    appendItem(child, member.itemName, item != null ? member.valueCodec.toText(item) : null, doc);
+                }
+                break;
+            case REFERENCE:
+                appendText(child, getKeyTextForRelated(value), doc);
+                break;
+            case REFERENCE_COLLECTION:
+                for (Object item : (Collection)value)
+                {
+                    appendItem(child, member.itemName, getKeyTextForRelated(item), doc);
+                }
+                break;
+            case REFERENCE_ARRAY:
+                for (int i = 0, length = Array.getLength(value); i < length; i++)
+                {
+                    appendItem(child, member.itemName, getKeyTextForRelated(Array.get(value, i)), doc);
+                }
+                break;
+            case EMBEDDED:
+                handler.getClassCodec(value.getClass(), clr).writeMembers((Persistable)value, child, doc);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Method to read the value of a member from its element.
+     * @param member The member
+     * @param child The element for the member
+     * @param current Current value of the field (only used for a collection, which is refilled where already set)
+     * @return The value
+     */
+    private Object readValue(MemberCodec member, Element child, Object current)
+    {
+        switch (member.kind)
+        {
+            case VALUE:
+                return member.valueCodec.fromText(child.getTextContent());
+            case VALUE_COLLECTION:
+            {
+                Collection coll = getCollectionForField(member, current);
+                for (Node item = child.getFirstChild(); item != null; item = item.getNextSibling())
+                {
+                    if (item.getNodeType() == Node.ELEMENT_NODE && item.getNodeName().equals(member.itemName))
+                    {
+                        coll.add(member.valueCodec.fromText(item.getTextContent()));
+                    }
+                }
+                return coll;
+            }
+            case VALUE_ARRAY:
+            {
+                List items = new ArrayList();
+                for (Node item = child.getFirstChild(); item != null; item = item.getNextSibling())
+                {
+                    if (item.getNodeType() == Node.ELEMENT_NODE && item.getNodeName().equals(member.itemName))
+                    {
+                        items.add(member.valueCodec.fromText(item.getTextContent()));
+                    }
+                }
+                Object array = Array.newInstance(member.elementType, items.size());
+                for (int i = 0; i < items.size(); i++)
+                {
+                    Array.set(array, i, items.get(i));
+                }
+                return array;
+            }
+            case REFERENCE_COLLECTION:
+                // Related objects are found (by their key) when the field is fetched, so just provide an empty collection
+                return getCollectionForField(member, current);
+            case EMBEDDED:
+                return handler.getClassCodec(member.type, clr).unmarshall(child);
+            default:
+                return current;
+        }
+    }
+
+    /**
+     * Accessor for the (cleared) collection to read the items of a collection member into, using the current value of the
+     * field when set (e.g by the constructor), otherwise a new collection of a suitable type.
+     */
+    private Collection getCollectionForField(MemberCodec member, Object current)
+    {
+        if (current instanceof Collection)
+        {
+            Collection coll = (Collection)current;
+            coll.clear();
+            return coll;
+        }
+
+        Class implType = member.type;
+        if (implType.isInterface() || Modifier.isAbstract(implType.getModifiers()))
+        {
+            implType = null;
+            for (Class type : COLLECTION_IMPL_TYPES)
+            {
+                if (member.type.isAssignableFrom(type))
+                {
+                    implType = type;
+                    break;
+                }
+            }
+            if (implType == null)
+            {
+                throw new NucleusUserException("Unable to create collection of type " + member.type.getName() + " for field " + member.mmd.getFullFieldName());
+            }
+        }
+        try
+        {
+            return (Collection)implType.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new NucleusUserException("Unable to create collection of type " + implType.getName() + " for field " + member.mmd.getFullFieldName(), e);
+        }
+    }
+
+    private String getKeyTextForRelated(Object related)
+    {
+        if (related == null)
+        {
+            return null;
+        }
+        if (!(related instanceof Persistable))
+        {
+            throw new NucleusUserException("Object " + related + " is referred to by class " + cmd.getFullClassName() + " but is not persistable");
+        }
+        return handler.getClassCodec(related.getClass(), clr).getKeyText((Persistable)related);
+    }
+
+    private static Object provideField(Persistable pc, FieldValueStateManager fvsm, int fieldNumber)
+    {
+        if (fvsm != null)
+        {
+            return fvsm.provideField(pc, fieldNumber);
+        }
+
+        StateManager sm = pc.dnGetStateManager();
+        if (sm instanceof DNStateManager)
+        {
+            return ((DNStateManager)sm).provideField(fieldNumber);
+        }
+        throw new NucleusException("Object of type " + pc.getClass().getName() + " has StateManager of unsupported type " + sm.getClass().getName());
+    }
+
+    private static void appendItem(Element parent, String name, String text, Document doc)
+    {
+        if (text != null)
+        {
+            Element item = doc.createElement(name);
+            appendText(item, text, doc);
+            parent.appendChild(item);
+        }
+    }
+
+    private static void appendText(Element element, String text, Document doc)
+    {
+        if (text != null && !text.isEmpty())
+        {
+            element.appendChild(doc.createTextNode(text));
+        }
+    }
+
+    private static MemberCodec[] concat(MemberCodec[] first, MemberCodec[] second)
+    {
+        MemberCodec[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    /**
+     * Accessor for the persistent members of the class in the order they appear in the XML. This is the order of the fields
+     * in each class of the hierarchy (least derived class first), or the "propOrder" extension of that class where specified.
+     * Any persistent member that has no field of that name (e.g a property) follows the fields of its class.
+     * @param cmd Metadata for the class
+     * @param clr ClassLoader resolver
+     * @return The members
+     */
+    private static List<AbstractMemberMetaData> getMembersInDocumentOrder(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+    {
+        List<AbstractClassMetaData> cmds = new ArrayList<>();
+        for (AbstractClassMetaData theCmd = cmd; theCmd != null; theCmd = theCmd.getSuperAbstractClassMetaData())
+        {
+            cmds.add(0, theCmd);
+        }
+
+        List<AbstractMemberMetaData> members = new ArrayList<>();
+        for (AbstractClassMetaData theCmd : cmds)
+        {
+            List<AbstractMemberMetaData> classMembers = new ArrayList<>();
+            Class theCls = clr.classForName(theCmd.getFullClassName());
+            for (Field field : theCls.getDeclaredFields())
+            {
+                if (!Modifier.isStatic(field.getModifiers()))
+                {
+                    AbstractMemberMetaData mmd = theCmd.getMetaDataForMember(field.getName());
+                    if (mmd != null && mmd.getPersistenceModifier() == FieldPersistenceModifier.PERSISTENT && !classMembers.contains(mmd))
+                    {
+                        classMembers.add(mmd);
+                    }
+                }
+            }
+            for (AbstractMemberMetaData mmd : theCmd.getManagedMembers())
+            {
+                if (mmd.getPersistenceModifier() == FieldPersistenceModifier.PERSISTENT && !classMembers.contains(mmd))
+                {
+                    classMembers.add(mmd);
+                }
+            }
+
+            if (theCmd.hasExtension("propOrder"))
+            {
+                List<String> propOrder = Arrays.asList(theCmd.getValueForExtension("propOrder").split(","));
+                classMembers.sort((m1, m2) -> Integer.compare(getPropOrderPosition(propOrder, m1), getPropOrderPosition(propOrder, m2)));
+            }
+            members.addAll(classMembers);
+        }
+        return members;
+    }
+
+    private static int getPropOrderPosition(List<String> propOrder, AbstractMemberMetaData mmd)
+    {
+        for (int i = 0; i < propOrder.size(); i++)
+        {
+            if (propOrder.get(i).trim().equals(mmd.getName()))
+            {
+                return i;
+            }
+        }
+        return propOrder.size();
+    }
+
+    /**
+     * Representation of a member of the class in the XML.
+     */
+    static class MemberCodec
+    {
+        final AbstractMemberMetaData mmd;
+
+        final int fieldNumber;
+
+        final Kind kind;
+
+        /** Whether the member is an attribute (rather than a child element). */
+        final boolean attribute;
+
+        /** Name of the attribute/element. */
+        final String name;
+
+        /** Name of the element for each item of a collection/array. */
+        final String itemName;
+
+        /** Type of the member. */
+        final Class type;
+
+        /** Type of the items of a collection/array. */
+        final Class elementType;
+
+        /** Codec for the value (or items) of a non-relation member. */
+        final ValueCodec valueCodec;
+
+        /**
+         * Whether the member is a collection, which is refilled when read (so keeping any collection set by the constructor).
+         * @return Whether a collection
+         */
+        boolean isCollection()
+        {
+            return kind == Kind.VALUE_COLLECTION || kind == Kind.REFERENCE_COLLECTION;
+        }
+
+        /**
+         * Whether the value of the member is read from the XML. Related objects are found from the references when fetched.
+         * @return Whether read
+         */
+        boolean isRead()
+        {
+            return kind != Kind.REFERENCE && kind != Kind.REFERENCE_ARRAY;
+        }
+
+        MemberCodec(AbstractMemberMetaData mmd, ClassLoaderResolver clr, TypeManager typeMgr)
+        {
+            this.mmd = mmd;
+            this.fieldNumber = mmd.getAbsoluteFieldNumber();
+            this.type = mmd.getType();
+            if (mmd.hasMap())
+            {
+                throw unsupported(mmd, "is a Map");
+            }
+            if (mmd.hasExtension("XmlElementRef"))
+            {
+                throw unsupported(mmd, "has extension \"XmlElementRef\"");
+            }
+            if (mmd.hasExtension("namespace"))
+            {
+                throw unsupported(mmd, "has extension \"namespace\"");
+            }
+
+            boolean relation = (mmd.getRelationType(clr) != RelationType.NONE);
+            if (mmd.hasCollection())
+            {
+                kind = (relation ? Kind.REFERENCE_COLLECTION : Kind.VALUE_COLLECTION);
+                elementType = clr.classForName(mmd.getCollection().getElementType());
+                itemName = XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_COLLECTION_ELEMENT);
+            }
+            else if (mmd.hasArray())
+            {
+                kind = (relation ? Kind.REFERENCE_ARRAY : Kind.VALUE_ARRAY);
+                elementType = type.getComponentType();
+                itemName = XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_ARRAY_ELEMENT);
+            }
+            else
+            {
+                kind = (relation ? (mmd.getEmbeddedMetaData() != null ? Kind.EMBEDDED : Kind.REFERENCE) : Kind.VALUE);
+                elementType = null;
+                itemName = null;
+            }
+
+            if (kind == Kind.VALUE || kind == Kind.VALUE_COLLECTION || kind == Kind.VALUE_ARRAY)
+            {
+                Class valueType = (kind == Kind.VALUE ? type : elementType);
+                valueCodec = ValueCodec.getCodecForType(valueType, typeMgr);
+                if (valueCodec == null)
+                {
+                    throw unsupported(mmd, "has type " + valueType.getName() + " that has no String conversion");
+                }
+            }
+            else
+            {
+                valueCodec = null;
+            }
+
+            if (mmd.hasExtension("XmlAttribute"))
+            {
+                if (kind != Kind.VALUE)
+                {
+                    throw unsupported(mmd, "has extension \"XmlAttribute\" but is not a single value");
+                }
+                attribute = true;
+                name = (mmd.hasExtension("name") ? mmd.getValueForExtension("name") : XMLUtils.getJAXBDefaultNameForName(mmd.getName()));
+            }
+            else
+            {
+                attribute = false;
+                name = XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_FIELD);
+            }
+        }
+
+        private static NucleusUserException unsupported(AbstractMemberMetaData mmd, String reason)
+        {
+            return new NucleusUserException("Field " + mmd.getFullFieldName() + " " + reason + " which is not supported by " +
+                DOMCodecHandler.class.getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.codec;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.JAXBException;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.enhancement.Persistable;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.store.xml.JAXBHandler;
+import org.datanucleus.util.NucleusLogger;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * JAXBHandler that converts objects to/from their XML elements directly from the DataNucleus metadata, without using JAXB.
+ * This avoids the creation of a JAXBContext per class and the reflective (annotation proxy based) binding of JAXB, and
+ * produces the same XML as the JAXB reference implementation (see {@link ClassCodec} for the mapping and its limitations).
+ * To use it set the persistence property "datanucleus.xml.jaxbHandlerClass" to this class name.
+ * <p>
+ * The mapping of each class is derived on first use and cached until {@link #clearCache()} is called (when new metadata
+ * is loaded).
+ * </p>
+ */
+public class DOMCodecHandler implements JAXBHandler
+{
+    protected MetaDataManager mmgr;
+
+    /** Cache of the codec for each class. */
+    private final Map<Class, ClassCodec> codecs = new ConcurrentHashMap<>();
+
+    /** Classes whose mapping is not supported by the codec. */
+    private final Set<Class> unsupportedClasses = ConcurrentHashMap.newKeySet();
+
+    public DOMCodecHandler(MetaDataManager mmgr)
+    {
+        this.mmgr = mmgr;
+    }
+
+    /**
+     * Accessor for the codec for objects of the specified class, creating it if not yet cached.
+     * @param cls The class
+     * @param clr ClassLoader resolver
+     * @return The codec
+     */
+    public ClassCodec getClassCodec(Class cls, ClassLoaderResolver clr)
+    {
+        ClassCodec codec = codecs.get(cls);
+        if (codec == null)
+        {
+            AbstractClassMetaData cmd = mmgr.getMetaDataForClass(cls, clr);
+            if (cmd == null)
+            {
+                throw new NucleusUserException("Class " + cls.getName() + " has no metadata so cannot be stored as XML");
+            }
+            codec = new ClassCodec(this, cls, cmd, clr, mmgr.getNucleusContext().getTypeManager());
+            ClassCodec existing = codecs.putIfAbsent(cls, codec);
+            if (existing != null)
+            {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Accessor for the codec for objects of the specified class, or null if the mapping of the class is not supported by the
+     * codec (in which case the objects have to be converted by a JAXB based handler).
+     * @param cls The class
+     * @param clr ClassLoader resolver
+     * @return The codec (or null)
+     */
+    public ClassCodec findClassCodec(Class cls, ClassLoaderResolver clr)
+    {
+        ClassCodec codec = codecs.get(cls);
+        if (codec == null && !unsupportedClasses.contains(cls))
+        {
+            try
+            {
+                codec = getClassCodec(cls, clr);
+            }
+            catch (NucleusUserException nue)
+            {
+                NucleusLogger.DATASTORE.debug("Class " + cls.getName() + " cannot be converted directly : " + nue.getMessage());
+                unsupportedClasses.add(cls);
+            }
+        }
+        return codec;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.xml.JAXBHandler#marshall(java.lang.Object, org.w3c.dom.Node, org.datanucleus.ClassLoaderResolver)
+     */
+    @Override
+    public void marshall(Object obj, Node node, ClassLoaderResolver clr) throws JAXBException
+    {
+        if (!(obj instanceof Persistable))
+        {
+            throw new JAXBException("Object of type " + obj.getClass().getName() + " is not persistable");
+        }
+        getClassCodec(obj.getClass(), clr).marshall((Persistable)obj, node);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.xml.JAXBHandler#unmarshall(java.lang.Class, org.w3c.dom.Node, org.datanucleus.ClassLoaderResolver)
+     */
+    @Override
+    public Object unmarshall(Class cls, Node node, ClassLoaderResolver clr) throws JAXBException
+    {
+        if (node.getNodeType() != Node.ELEMENT_NODE)
+        {
+            throw new JAXBException("Unable to unmarshall node " + node.getNodeName() + " since it is not an element");
+        }
+
+        ClassCodec codec = getClassCodec(cls, clr);
+        try
+        {
+            return codec.unmarshall((Element)node);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Invalid value text (NumberFormatException etc)
+            throw new JAXBException("Invalid value in element " + node.getNodeName() + " for class " + cls.getName() + " : " + e.getMessage(), e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.xml.JAXBHandler#clearCache()
+     */
+    @Override
+    public void clearCache()
+    {
+        unsupportedClasses.clear();
+        if (!codecs.isEmpty())
+        {
+            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE.debug("Clearing cache of " + codecs.size() + " XML class codec(s)");
+            }
+            codecs.clear();
+        }
+    }
+}
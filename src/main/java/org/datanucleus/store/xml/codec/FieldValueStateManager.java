@@ -0,0 +1,305 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.codec;
+
+import org.datanucleus.enhancement.Detachable;
+import org.datanucleus.enhancement.ExecutionContextReference;
+import org.datanucleus.enhancement.Persistable;
+import org.datanucleus.enhancement.StateManager;
+
+/**
+ * Minimal StateManager that is temporarily assigned to an object that has no StateManager of its own, so that its fields can
+ * be read and written via the enhancer contract (<i>dnProvideField</i>/<i>dnReplaceField</i>) rather than reflection.
+ * A field value passes through the single value slot, so a call to {@link #provideField(Persistable, int)} or
+ * {@link #replaceField(Persistable, int, Object)} handles one field at a time. Not thread-safe.
+ */
+public class FieldValueStateManager implements StateManager
+{
+    /** Value of the field being provided/replaced. */
+    private Object value;
+
+    /**
+     * Method to assign this StateManager to the object, which must not currently have a StateManager.
+     * @param pc The object
+     */
+    public void attach(Persistable pc)
+    {
+        pc.dnReplaceStateManager(this);
+    }
+
+    /**
+     * Method to remove this StateManager from the object, resetting its flags to those of an unmanaged object.
+     * @param pc The object
+     */
+    public void detach(Persistable pc)
+    {
+        pc.dnReplaceFlags();
+        pc.dnReplaceStateManager(null);
+        value = null;
+    }
+
+    /**
+     * Accessor for the value of a field of the (attached) object.
+     * @param pc The object
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    public Object provideField(Persistable pc, int fieldNumber)
+    {
+        pc.dnProvideField(fieldNumber);
+        Object fieldValue = value;
+        value = null;
+        return fieldValue;
+    }
+
+    /**
+     * Mutator for the value of a field of the (attached) object.
+     * @param pc The object
+     * @param fieldNumber Absolute number of the field
+     * @param fieldValue The value
+     */
+    public void replaceField(Persistable pc, int fieldNumber, Object fieldValue)
+    {
+        value = fieldValue;
+        pc.dnReplaceField(fieldNumber);
+        value = null;
+    }
+
+    public ExecutionContextReference getExecutionContextReference()
+    {
+        return null;
+    }
+
+    public byte replacingFlags(Persistable pc)
+    {
+        return Persistable.READ_WRITE_OK;
+    }
+
+    public StateManager replacingStateManager(Persistable pc, StateManager sm)
+    {
+        return sm;
+    }
+
+    public boolean isDirty(Persistable pc)
+    {
+        return false;
+    }
+
+    public boolean isTransactional(Persistable pc)
+    {
+        return false;
+    }
+
+    public boolean isPersistent(Persistable pc)
+    {
+        return false;
+    }
+
+    public boolean isNew(Persistable pc)
+    {
+        return false;
+    }
+
+    public boolean isDeleted(Persistable pc)
+    {
+        return false;
+    }
+
+    public void makeDirty(Persistable pc, String fieldName)
+    {
+    }
+
+    public Object getObjectId(Persistable pc)
+    {
+        return null;
+    }
+
+    public Object getTransactionalObjectId(Persistable pc)
+    {
+        return null;
+    }
+
+    public Object getVersion(Persistable pc)
+    {
+        return null;
+    }
+
+    public boolean isLoaded(Persistable pc, int fieldNumber)
+    {
+        return true;
+    }
+
+    public void preSerialize(Persistable pc)
+    {
+    }
+
+    public void setBooleanField(Persistable pc, int fieldNumber, boolean currentValue, boolean newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setCharField(Persistable pc, int fieldNumber, char currentValue, char newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setByteField(Persistable pc, int fieldNumber, byte currentValue, byte newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setShortField(Persistable pc, int fieldNumber, short currentValue, short newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setIntField(Persistable pc, int fieldNumber, int currentValue, int newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setLongField(Persistable pc, int fieldNumber, long currentValue, long newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setFloatField(Persistable pc, int fieldNumber, float currentValue, float newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setDoubleField(Persistable pc, int fieldNumber, double currentValue, double newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setStringField(Persistable pc, int fieldNumber, String currentValue, String newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void setObjectField(Persistable pc, int fieldNumber, Object currentValue, Object newValue)
+    {
+        replaceField(pc, fieldNumber, newValue);
+    }
+
+    public void providedBooleanField(Persistable pc, int fieldNumber, boolean currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedCharField(Persistable pc, int fieldNumber, char currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedByteField(Persistable pc, int fieldNumber, byte currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedShortField(Persistable pc, int fieldNumber, short currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedIntField(Persistable pc, int fieldNumber, int currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedLongField(Persistable pc, int fieldNumber, long currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedFloatField(Persistable pc, int fieldNumber, float currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedDoubleField(Persistable pc, int fieldNumber, double currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedStringField(Persistable pc, int fieldNumber, String currentValue)
+    {
+        value = currentValue;
+    }
+
+    public void providedObjectField(Persistable pc, int fieldNumber, Object currentValue)
+    {
+        value = currentValue;
+    }
+
+    public boolean replacingBooleanField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Boolean)value : false;
+    }
+
+    public char replacingCharField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Character)value : 0;
+    }
+
+    public byte replacingByteField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Byte)value : 0;
+    }
+
+    public short replacingShortField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Short)value : 0;
+    }
+
+    public int replacingIntField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Integer)value : 0;
+    }
+
+    public long replacingLongField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Long)value : 0;
+    }
+
+    public float replacingFloatField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Float)value : 0;
+    }
+
+    public double replacingDoubleField(Persistable pc, int fieldNumber)
+    {
+        return value != null ? (Double)value : 0;
+    }
+
+    public String replacingStringField(Persistable pc, int fieldNumber)
+    {
+        return (String)value;
+    }
+
+    public Object replacingObjectField(Persistable pc, int fieldNumber)
+    {
+        return value;
+    }
+
+    public Object[] replacingDetachedState(Detachable pc, Object[] state)
+    {
+        return state;
+    }
+}
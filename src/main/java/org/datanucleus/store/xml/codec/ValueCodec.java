@@ -0,0 +1,569 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.codec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.store.types.TypeManager;
+import org.datanucleus.store.types.converters.TypeConverter;
+
+/**
+ * Conversion between a value of a particular Java type and its text form in the XML.
+ * The text forms are the same as those of the JAXB reference implementation for the types that it supports (so a file can be
+ * read and written by either handler). For example, dates are "xsd:dateTime" strings, characters are their code point, and
+ * floating point values use "NaN"/"INF"/"-INF".
+ * Any other type is converted using the String TypeConverter registered with DataNucleus for that type.
+ */
+public abstract class ValueCodec
+{
+    private static final DatatypeFactory DATATYPE_FACTORY;
+    static
+    {
+        try
+        {
+            DATATYPE_FACTORY = DatatypeFactory.newInstance();
+        }
+        catch (DatatypeConfigurationException e)
+        {
+            throw new NucleusException("Unable to create DatatypeFactory", e);
+        }
+    }
+
+    /**
+     * Method to return the text form of a (non-null) value.
+     * @param value The value
+     * @return The text
+     */
+    public abstract String toText(Object value);
+
+    /**
+     * Method to return the value represented by the text.
+     * @param text The text
+     * @return The value
+     */
+    public abstract Object fromText(String text);
+
+    /**
+     * Accessor for the codec to use for values of the specified type.
+     * @param type The type
+     * @param typeMgr Type manager, for the TypeConverter of any type that has no builtin codec
+     * @return The codec, or null if the type is not supported
+     */
+    public static ValueCodec getCodecForType(Class type, TypeManager typeMgr)
+    {
+        if (type == String.class)
+        {
+            return STRING;
+        }
+        else if (type == int.class || type == Integer.class)
+        {
+            return INTEGER;
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            return LONG;
+        }
+        else if (type == short.class || type == Short.class)
+        {
+            return SHORT;
+        }
+        else if (type == byte.class || type == Byte.class)
+        {
+            return BYTE;
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            return BOOLEAN;
+        }
+        else if (type == char.class || type == Character.class)
+        {
+            return CHARACTER;
+        }
+        else if (type == double.class || type == Double.class)
+        {
+            return DOUBLE;
+        }
+        else if (type == float.class || type == Float.class)
+        {
+            return FLOAT;
+        }
+        else if (type == BigDecimal.class)
+        {
+            return BIG_DECIMAL;
+        }
+        else if (type == BigInteger.class)
+        {
+            return BIG_INTEGER;
+        }
+        else if (type == Date.class)
+        {
+            return DATE;
+        }
+        else if (type == Calendar.class || type == GregorianCalendar.class)
+        {
+            return CALENDAR;
+        }
+        else if (type == UUID.class)
+        {
+            return UUID_CODEC;
+        }
+        else if (Enum.class.isAssignableFrom(type))
+        {
+            return new EnumCodec(type);
+        }
+
+        if (typeMgr != null)
+        {
+            TypeConverter conv = typeMgr.getTypeConverterForType(type, String.class);
+            if (conv != null)
+            {
+                return new ConverterCodec(conv);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convenience method to parse an int from the text, ignoring surrounding whitespace.
+     * @param text The text
+     * @return The value
+     */
+    public static int parseInt(String text)
+    {
+        return Integer.parseInt(text.trim());
+    }
+
+    /**
+     * Convenience method to parse a long from the text, ignoring surrounding whitespace.
+     * @param text The text
+     * @return The value
+     */
+    public static long parseLong(String text)
+    {
+        return Long.parseLong(text.trim());
+    }
+
+    /**
+     * Convenience method to parse a boolean from the text ("true"/"1" or "false"/"0"), ignoring surrounding whitespace.
+     * @param text The text
+     * @return The value
+     */
+    public static boolean parseBoolean(String text)
+    {
+        String str = text.trim();
+        return str.equals("true") || str.equals("1");
+    }
+
+    /**
+     * Convenience method to parse a double from the text, ignoring surrounding whitespace.
+     * @param text The text
+     * @return The value
+     */
+    public static double parseDouble(String text)
+    {
+        String str = text.trim();
+        if (str.equals("NaN"))
+        {
+            return Double.NaN;
+        }
+        else if (str.equals("INF"))
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        else if (str.equals("-INF"))
+        {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(str);
+    }
+
+    /**
+     * Convenience method to parse a float from the text, ignoring surrounding whitespace.
+     * @param text The text
+     * @return The value
+     */
+    public static float parseFloat(String text)
+    {
+        String str = text.trim();
+        if (str.equals("NaN"))
+        {
+            return Float.NaN;
+        }
+        else if (str.equals("INF"))
+        {
+            return Float.POSITIVE_INFINITY;
+        }
+        else if (str.equals("-INF"))
+        {
+            return Float.NEGATIVE_INFINITY;
+        }
+        return Float.parseFloat(str);
+    }
+
+    /**
+     * Convenience method to return the text form of a double.
+     * @param value The value
+     * @return The text
+     */
+    public static String printDouble(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return "NaN";
+        }
+        else if (value == Double.POSITIVE_INFINITY)
+        {
+            return "INF";
+        }
+        else if (value == Double.NEGATIVE_INFINITY)
+        {
+            return "-INF";
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Convenience method to return the text form of a float.
+     * @param value The value
+     * @return The text
+     */
+    public static String printFloat(float value)
+    {
+        if (Float.isNaN(value))
+        {
+            return "NaN";
+        }
+        else if (value == Float.POSITIVE_INFINITY)
+        {
+            return "INF";
+        }
+        else if (value == Float.NEGATIVE_INFINITY)
+        {
+            return "-INF";
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Convenience method to return the "xsd:dateTime" form of a calendar, for example "2009-02-13T23:31:30.123Z".
+     * Milliseconds are only included when non-zero, and the time zone is that of the calendar.
+     * @param cal The calendar
+     * @return The text
+     */
+    public static String printDateTime(Calendar cal)
+    {
+        StringBuilder str = new StringBuilder(29);
+
+        String yearStr = Integer.toString(cal.get(Calendar.YEAR));
+        for (int i = yearStr.length(); i < 4; i++)
+        {
+            str.append('0');
+        }
+        str.append(yearStr).append('-');
+        appendTwoDigits(str, cal.get(Calendar.MONTH) + 1).append('-');
+        appendTwoDigits(str, cal.get(Calendar.DAY_OF_MONTH)).append('T');
+        appendTwoDigits(str, cal.get(Calendar.HOUR_OF_DAY)).append(':');
+        appendTwoDigits(str, cal.get(Calendar.MINUTE)).append(':');
+        appendTwoDigits(str, cal.get(Calendar.SECOND));
+        int millis = cal.get(Calendar.MILLISECOND);
+        if (millis != 0)
+        {
+            str.append('.');
+            if (millis < 100)
+            {
+                str.append('0');
+            }
+            if (millis < 10)
+            {
+                str.append('0');
+            }
+            str.append(millis);
+        }
+
+        TimeZone tz = cal.getTimeZone();
+        if (tz != null)
+        {
+            int offset = tz.getOffset(cal.getTimeInMillis()) / 60000;
+            if (offset == 0)
+            {
+                str.append('Z');
+            }
+            else
+            {
+                str.append(offset < 0 ? '-' : '+');
+                offset = Math.abs(offset);
+                appendTwoDigits(str, offset / 60).append(':');
+                appendTwoDigits(str, offset % 60);
+            }
+        }
+        return str.toString();
+    }
+
+    /**
+     * Convenience method to parse an "xsd:dateTime" string. When no time zone is specified the default time zone is used.
+     * @param text The text
+     * @return The calendar
+     */
+    public static GregorianCalendar parseDateTime(String text)
+    {
+        return DATATYPE_FACTORY.newXMLGregorianCalendar(text.trim()).toGregorianCalendar();
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder str, int value)
+    {
+        if (value < 10)
+        {
+            str.append('0');
+        }
+        return str.append(value);
+    }
+
+    private static final ValueCodec STRING = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return (String)value;
+        }
+
+        public Object fromText(String text)
+        {
+            return text;
+        }
+    };
+
+    private static final ValueCodec INTEGER = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return parseInt(text);
+        }
+    };
+
+    private static final ValueCodec LONG = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return parseLong(text);
+        }
+    };
+
+    private static final ValueCodec SHORT = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return Short.parseShort(text.trim());
+        }
+    };
+
+    private static final ValueCodec BYTE = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return Byte.parseByte(text.trim());
+        }
+    };
+
+    private static final ValueCodec BOOLEAN = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return parseBoolean(text);
+        }
+    };
+
+    private static final ValueCodec CHARACTER = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return Integer.toString((Character)value);
+        }
+
+        public Object fromText(String text)
+        {
+            return (char)parseInt(text);
+        }
+    };
+
+    private static final ValueCodec DOUBLE = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return printDouble((Double)value);
+        }
+
+        public Object fromText(String text)
+        {
+            return parseDouble(text);
+        }
+    };
+
+    private static final ValueCodec FLOAT = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return printFloat((Float)value);
+        }
+
+        public Object fromText(String text)
+        {
+            return parseFloat(text);
+        }
+    };
+
+    private static final ValueCodec BIG_DECIMAL = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return ((BigDecimal)value).toPlainString();
+        }
+
+        public Object fromText(String text)
+        {
+            return new BigDecimal(text.trim());
+        }
+    };
+
+    private static final ValueCodec BIG_INTEGER = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return new BigInteger(text.trim());
+        }
+    };
+
+    private static final ValueCodec DATE = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            GregorianCalendar cal = new GregorianCalendar();
+            cal.setTime((Date)value);
+            return printDateTime(cal);
+        }
+
+        public Object fromText(String text)
+        {
+            return parseDateTime(text).getTime();
+        }
+    };
+
+    private static final ValueCodec CALENDAR = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return printDateTime((Calendar)value);
+        }
+
+        public Object fromText(String text)
+        {
+            return parseDateTime(text);
+        }
+    };
+
+    private static final ValueCodec UUID_CODEC = new ValueCodec()
+    {
+        public String toText(Object value)
+        {
+            return value.toString();
+        }
+
+        public Object fromText(String text)
+        {
+            return UUID.fromString(text.trim());
+        }
+    };
+
+    private static class EnumCodec extends ValueCodec
+    {
+        private final Class enumType;
+
+        EnumCodec(Class enumType)
+        {
+            this.enumType = enumType;
+        }
+
+        public String toText(Object value)
+        {
+            return ((Enum)value).name();
+        }
+
+        public Object fromText(String text)
+        {
+            return Enum.valueOf(enumType, text.trim());
+        }
+    }
+
+    private static class ConverterCodec extends ValueCodec
+    {
+        private final TypeConverter converter;
+
+        ConverterCodec(TypeConverter converter)
+        {
+            this.converter = converter;
+        }
+
+        public String toText(Object value)
+        {
+            return (String)converter.toDatastoreType(value);
+        }
+
+        public Object fromText(String text)
+        {
+            return converter.toMemberType(text);
+        }
+    }
+}
@@ -18,12 +18,18 @@
  **********************************************************************/
 package org.datanucleus.store.xml.fieldmanager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBException;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.FetchPlan;
 import org.datanucleus.enhancement.Persistable;
 import org.datanucleus.enhancement.StateManager;
 import org.datanucleus.exceptions.NucleusException;
@@ -33,12 +39,15 @@ import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.FieldRole;
 import org.datanucleus.metadata.RelationType;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.FieldValues;
+import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.fieldmanager.AbstractFieldManager;
+import org.datanucleus.store.types.SCO;
 import org.datanucleus.store.types.SCOUtils;
 import org.datanucleus.store.xml.XMLStoreManager;
 import org.datanucleus.store.xml.XMLUtils;
+import org.datanucleus.store.xml.codec.ClassCodec;
 import org.datanucleus.util.NucleusLogger;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -50,36 +59,97 @@ public class FetchFieldManager extends AbstractFieldManager
 {
     DNStateManager sm;
 
-    /** Unmarshalled object. */
+    /**
+     * Codec to read the requested fields directly from the node, or null if the object has to be unmarshalled via JAXB.
+     * Only available with DOMCodecHandler or when "datanucleus.xml.fieldCodec" is enabled, since the codec doesn't apply any
+     * JAXB annotations of the class. Without it the whole object is unmarshalled, and primitive fields are boxed.
+     */
+    ClassCodec codec;
+
+    /** Unmarshalled object (when not reading the fields directly). */
     Object value;
 
-    /** Document to use for reading the object. */
-    Document doc;
+    /** Connection to use for reading the object (and finding the types of related objects). */
+    ManagedConnection mconn;
 
     /** Node representing the object having its fields fetched. */
     Node node;
 
-    public FetchFieldManager(DNStateManager sm, Document doc)
+    public FetchFieldManager(DNStateManager sm, ManagedConnection mconn)
+    {
+        this(sm, mconn, XMLUtils.findNode(mconn, sm));
+    }
+
+    /**
+     * Constructor for a FieldManager reading from a node that has already been found.
+     * @param sm StateManager of the object
+     * @param mconn Connection to the datastore
+     * @param node Node representing the object
+     */
+    public FetchFieldManager(DNStateManager sm, ManagedConnection mconn, Node node)
     {
         this.sm = sm;
-        this.doc = doc;
+        this.mconn = mconn;
+        this.node = node;
 
         ExecutionContext ec = sm.getExecutionContext();
-        node = XMLUtils.findNode(doc, sm);
-        try
+        XMLStoreManager storeMgr = (XMLStoreManager)ec.getStoreManager();
+        if (storeMgr.getCodecHandler() != null)
         {
-            value = ((XMLStoreManager)ec.getStoreManager()).getJAXBHandler().unmarshall(sm.getObject().getClass(), node, sm.getExecutionContext().getClassLoaderResolver());
+            codec = storeMgr.getCodecHandler().findClassCodec(sm.getObject().getClass(), ec.getClassLoaderResolver());
         }
-        catch (JAXBException e)
+        if (codec == null)
         {
-            NucleusLogger.DATASTORE_RETRIEVE.warn("Exception unmarshalling XML", e);
+            try
+            {
+                value = storeMgr.getJAXBHandler().unmarshall(sm.getObject().getClass(), node, ec.getClassLoaderResolver());
+            }
+            catch (JAXBException e)
+            {
+                NucleusLogger.DATASTORE_RETRIEVE.warn("Exception unmarshalling XML", e);
+            }
         }
     }
 
-    public String fetchStringField(int fieldNumber)
+    /**
+     * Method to return the value of the specified field from the XML. Where possible only the element for the field is
+     * converted, otherwise the field is copied from the (whole) unmarshalled object.
+     * @param fieldNumber Absolute number of the field
+     * @return The value
+     */
+    protected Object fetchField(int fieldNumber)
     {
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return fetchInvalidField(fieldNumber, e);
+            }
+        }
+
         copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (String) sm.provideField(fieldNumber);
+        return sm.provideField(fieldNumber);
+    }
+
+    /**
+     * Method to handle a field whose XML text could not be converted, logging it and leaving the field at its current value.
+     * @param fieldNumber Absolute number of the field
+     * @param e The exception from the conversion
+     * @return The current value of the field
+     */
+    private Object fetchInvalidField(int fieldNumber, IllegalArgumentException e)
+    {
+        NucleusLogger.DATASTORE_RETRIEVE.warn("Exception reading field " + fieldNumber + " of " + sm.getObjectAsPrintable() + " from XML", e);
+        return sm.provideField(fieldNumber);
+    }
+
+    public String fetchStringField(int fieldNumber)
+    {
+        return (String) fetchField(fieldNumber);
     }
 
     public Object fetchObjectField(int fieldNumber)
@@ -90,9 +160,8 @@ public class FetchFieldManager extends AbstractFieldManager
         RelationType relationType = mmd.getRelationType(clr);
         if (relationType == RelationType.NONE)
         {
-            // Object-based field (non-relation)
-            copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-            return sm.provideField(fieldNumber);
+            // Object-based field (non-relation), wrapped where mutable so that changes to it are detected
+            return SCOUtils.wrapSCOField(sm, fieldNumber, fetchField(fieldNumber), true);
         }
         else if (mmd.getEmbeddedMetaData() != null)
         {
@@ -126,40 +195,19 @@ public class FetchFieldManager extends AbstractFieldManager
                 // TODO Cater for Map/array
                 if (mmd.hasCollection())
                 {
-                    AbstractClassMetaData cmd2 = ec.getMetaDataManager().getMetaDataForClass(mmd.getCollection().getElementType(), clr);
-                    if (cmd2 == null)
+                    if (ec.getStoreManager().useBackedSCOWrapperForMember(mmd, ec))
                     {
-                        throw new NucleusUserException("Cannot find metadata for element type " + mmd.getCollection().getElementType() + " for field=" + mmd.getFullFieldName());
+                        // Lazy loading collection, which loads the related objects from the ids in our node when accessed
+                        SCO collection = ec.getTypeManager().createSCOWrapper(sm, mmd, mmd.getType());
+                        collection.initialise();
+                        return collection;
                     }
 
-                    // Get value being unmarshalled
-                    copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-                    Collection collection = (Collection) sm.provideField(fieldNumber);
-
-                    // Make sure we get the right type of element (allow for inheritance)
-                    NodeList nLists = ((Element) node).getElementsByTagName(XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_COLLECTION_ELEMENT));
-                    for (int i = 0; i < nLists.getLength(); i++)
+                    // Get (empty) collection to add the related objects to
+                    Collection collection = (Collection) fetchField(fieldNumber);
+                    for (Object related : fetchRelatedObjects(sm, mmd, mconn, getElementIds((Element) node, mmd)))
                     {
-                        final String nodeValue = nLists.item(i).getFirstChild().getNodeValue();
-                        if (nodeValue != null && nodeValue.trim().length() > 0)
-                        {
-                            final AbstractClassMetaData elementCmd = XMLUtils.findMetaDataForNode(doc, cmd2, ec.getMetaDataManager(), nodeValue, clr);
-                            if (elementCmd == null)
-                            {
-                                throw new NucleusException("Unable to find object of type " + cmd2.getFullClassName() + " with id=" + nodeValue);
-                            }
-
-                            Object id = ec.getNucleusContext().getIdentityManager().getApplicationId(clr.classForName(elementCmd.getFullClassName(), true), nodeValue);
-                            Object related = ec.findObject(id, true, true, null);
-                            if (relationType == RelationType.ONE_TO_MANY_BI)
-                            {
-                                // Set other side of relation to avoid reloading
-                                DNStateManager relatedSM = ec.findStateManager(related);
-                                AbstractMemberMetaData relatedMmd = relatedSM.getClassMetaData().getMetaDataForMember(mmd.getMappedBy());
-                                relatedSM.replaceField(relatedMmd.getAbsoluteFieldNumber(), sm.getObject());
-                            }
-                            collection.add(related);
-                        }
+                        collection.add(related);
                     }
 
                     return SCOUtils.wrapSCOField(sm, fieldNumber, collection, true);
@@ -183,50 +231,250 @@ public class FetchFieldManager extends AbstractFieldManager
 
     public boolean fetchBooleanField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Boolean) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            // Parse the text straight into the primitive, avoiding boxing
+            try
+            {
+                return codec.fetchBooleanField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Boolean) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Boolean) fetchField(fieldNumber);
     }
 
     public byte fetchByteField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Byte) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchByteField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Byte) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Byte) fetchField(fieldNumber);
     }
 
     public char fetchCharField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Character) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchCharField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Character) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Character) fetchField(fieldNumber);
     }
 
     public double fetchDoubleField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Double) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchDoubleField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Double) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Double) fetchField(fieldNumber);
     }
 
     public float fetchFloatField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Float) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchFloatField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Float) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Float) fetchField(fieldNumber);
     }
 
     public int fetchIntField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Integer) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchIntField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Integer) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Integer) fetchField(fieldNumber);
     }
 
     public long fetchLongField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Long) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchLongField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Long) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Long) fetchField(fieldNumber);
     }
 
     public short fetchShortField(int fieldNumber)
     {
-        copyFieldsFromObject(sm, value, new int[]{fieldNumber});
-        return (Short) sm.provideField(fieldNumber);
+        if (codec != null)
+        {
+            try
+            {
+                return codec.fetchShortField((Element)node, fieldNumber);
+            }
+            catch (IllegalArgumentException e)
+            {
+                return (Short) fetchInvalidField(fieldNumber, e);
+            }
+        }
+        return (Short) fetchField(fieldNumber);
+    }
+
+    /**
+     * Accessor for the ids of the related objects of a collection field, as stored in the element of the owner object.
+     * @param ownerElement Element for the owner object
+     * @param mmd Metadata for the collection field
+     * @return The ids (primary key values) of the related objects, in the order stored
+     */
+    public static String[] getElementIds(Element ownerElement, AbstractMemberMetaData mmd)
+    {
+        NodeList nLists = ownerElement.getElementsByTagName(XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_COLLECTION_ELEMENT));
+        List<String> nodeValues = new ArrayList<>(nLists.getLength());
+        for (int i = 0; i < nLists.getLength(); i++)
+        {
+            final String nodeValue = nLists.item(i).getFirstChild().getNodeValue();
+            if (nodeValue != null && nodeValue.trim().length() > 0)
+            {
+                nodeValues.add(nodeValue);
+            }
+        }
+        return nodeValues.toArray(new String[nodeValues.size()]);
+    }
+
+    /**
+     * Method to find the related objects of a collection field with the specified ids. The elements of all of the objects
+     * are found together (allowing for inheritance), and each object is materialised from its element so that it doesn't
+     * need finding again.
+     * @param ownerSM StateManager of the owner object
+     * @param mmd Metadata for the collection field
+     * @param mconn Connection to the datastore
+     * @param ids Ids (primary key values) of the related objects
+     * @return The related objects, in the order of the ids
+     * @throws NucleusException if any of the related objects is not present
+     */
+    public static Object[] fetchRelatedObjects(DNStateManager ownerSM, AbstractMemberMetaData mmd, ManagedConnection mconn, String[] ids)
+    {
+        ExecutionContext ec = ownerSM.getExecutionContext();
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        AbstractClassMetaData cmd2 = ec.getMetaDataManager().getMetaDataForClass(mmd.getCollection().getElementType(), clr);
+        if (cmd2 == null)
+        {
+            throw new NucleusUserException("Cannot find metadata for element type " + mmd.getCollection().getElementType() + " for field=" + mmd.getFullFieldName());
+        }
+
+        AbstractClassMetaData[] elementCmds = new AbstractClassMetaData[ids.length];
+        Element[] elements = XMLUtils.findElementsForKeys(mconn, cmd2, ec.getMetaDataManager(), ids, clr, elementCmds);
+        Map<AbstractClassMetaData, int[]> fieldNumbersByClass = new HashMap<>();
+        Object[] relatedObjects = new Object[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            final AbstractClassMetaData elementCmd = elementCmds[i];
+            if (elementCmd == null)
+            {
+                throw new NucleusException("Unable to find object of type " + cmd2.getFullClassName() + " with id=" + ids[i]);
+            }
+
+            Class elementCls = clr.classForName(elementCmd.getFullClassName(), true);
+            Object id = ec.getNucleusContext().getIdentityManager().getApplicationId(elementCls, ids[i]);
+            int[] fieldNumbers = fieldNumbersByClass.computeIfAbsent(elementCmd, c -> getNonRelationFetchPlanFields(c, ec));
+            Object related = ec.findObject(id, getFieldValuesForElement(mconn, elements[i], fieldNumbers), elementCls, false, false);
+            if (mmd.getRelationType(clr) == RelationType.ONE_TO_MANY_BI)
+            {
+                // Set other side of relation to avoid reloading
+                DNStateManager relatedSM = ec.findStateManager(related);
+                AbstractMemberMetaData relatedMmd = relatedSM.getClassMetaData().getMetaDataForMember(mmd.getMappedBy());
+                relatedSM.replaceField(relatedMmd.getAbsoluteFieldNumber(), ownerSM.getObject());
+            }
+            relatedObjects[i] = related;
+        }
+        return relatedObjects;
+    }
+
+    /**
+     * Accessor for the numbers of the fields in the fetch plan of the specified class that are not relations, which are the
+     * fields that can be loaded from the element of an object without finding any other object.
+     * @param cmd Metadata for the class
+     * @param ec ExecutionContext
+     * @return The field numbers
+     */
+    private static int[] getNonRelationFetchPlanFields(AbstractClassMetaData cmd, ExecutionContext ec)
+    {
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        int[] fpMembers = ec.getFetchPlan().getFetchPlanForClass(cmd).getMemberNumbers();
+        int[] fieldNumbers = new int[fpMembers.length];
+        int numFields = 0;
+        for (int fpMember : fpMembers)
+        {
+            if (cmd.getMetaDataForManagedMemberAtAbsolutePosition(fpMember).getRelationType(clr) == RelationType.NONE)
+            {
+                fieldNumbers[numFields++] = fpMember;
+            }
+        }
+        return Arrays.copyOf(fieldNumbers, numFields);
+    }
+
+    /**
+     * Accessor for the FieldValues to load the specified fields of an object from its (already found) element.
+     * @param mconn Connection to the datastore
+     * @param element The element for the object
+     * @param fieldNumbers Numbers of the fields to load
+     * @return The FieldValues
+     */
+    public static FieldValues getFieldValuesForElement(final ManagedConnection mconn, final Element element, final int[] fieldNumbers)
+    {
+        return new FieldValues()
+        {
+            public void fetchFields(DNStateManager relatedSM)
+            {
+                relatedSM.replaceFields(fieldNumbers, new FetchFieldManager(relatedSM, mconn, element));
+            }
+            public void fetchNonLoadedFields(DNStateManager relatedSM)
+            {
+                relatedSM.replaceNonLoadedFields(fieldNumbers, new FetchFieldManager(relatedSM, mconn, element));
+            }
+            public FetchPlan getFetchPlanForLoading()
+            {
+                return null;
+            }
+        };
     }
 
     /**
@@ -32,6 +32,8 @@ import com.sun.xml.bind.api.JAXBRIContext;
 /**
  * JAXBHandler using the JAXB reference implementation.
  * See https://github.com/gf-metro/jaxb/tree/master/jaxb-ri
+ * Note that any JAXBContext created here is cached by the superclass, so the (expensive) creation only happens once per
+ * set of classes and ClassLoaderResolver.
  */
 public class JAXBRIHandler extends AbstractJAXBHandler
 {
@@ -19,9 +19,11 @@ Contributors :
 package org.datanucleus.store.xml.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.metadata.QueryLanguage;
@@ -31,6 +33,7 @@ import org.datanucleus.store.query.AbstractJDOQLQuery;
 import org.datanucleus.store.query.Query;
 import org.datanucleus.store.query.inmemory.JDOQLInMemoryEvaluator;
 import org.datanucleus.store.query.inmemory.JavaQueryInMemoryEvaluator;
+import org.datanucleus.store.xml.XMLStoreManager;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 
@@ -84,20 +87,72 @@ public class JDOQLQuery extends AbstractJDOQLQuery
                 NucleusLogger.QUERY.debug(Localiser.msg("021046", QueryLanguage.JDOQL.name(), getSingleStringQuery(), null));
             }
             List candidates = null;
+            XMLCandidateList candidateList = null;
             if (candidateCollection != null)
             {
                 candidates = new ArrayList(candidateCollection);
             }
             else
             {
-                candidates = new XMLCandidateList(candidateClass, subclasses, ec,  
-                    (String)getExtension(Query.EXTENSION_RESULT_CACHE_TYPE), mconn, ignoreCache);
+                // Restrict the candidates using any part of the filter that can be evaluated using XPath
+                QueryToXPathMapper filterMapper = new QueryToXPathMapper(compilation, parameters, ec.getClassLoaderResolver());
+                candidateList = new XMLCandidateList(candidateClass, subclasses, ec,
+                    (String)getExtension(Query.EXTENSION_RESULT_CACHE_TYPE), mconn, ignoreCache, filterMapper);
+                candidates = candidateList;
             }
 
-            // Apply any result restrictions to the XML XPath results
-            JavaQueryInMemoryEvaluator resultMapper = new JDOQLInMemoryEvaluator(this, candidates, compilation,
-                parameters, ec.getClassLoaderResolver());
-            Collection results = resultMapper.execute(true, true, true, true, true);
+            Collection results = null;
+            boolean applyFilter = true;
+            boolean applyRange = true;
+            if (candidateList != null)
+            {
+                // Evaluate any aggregate result from the XML of the candidates, without unmarshalling them
+                results = new XMLAggregateEvaluator(this, compilation, ec.getClassLoaderResolver()).execute(candidateList);
+            }
+            if (results == null && candidateList != null && XMLQueryResult.resultsAreCandidates(this, compilation))
+            {
+                // Results are the candidates matching the filter, so the range can be applied to the candidates
+                long[] range = XMLQueryResult.getRange(this, parameters);
+                if (getBooleanExtensionProperty(XMLStoreManager.QUERY_STREAMING_PROPERTY, false))
+                {
+                    // Read the results as they are accessed, evaluating the filter on each candidate where not fully applied
+                    Predicate<Object> filter = null;
+                    if (!candidateList.isFilterComplete())
+                    {
+                        // Use one evaluator for all candidates, over a list holding the candidate being evaluated
+                        Object[] candidate = new Object[1];
+                        JavaQueryInMemoryEvaluator evaluator = new JDOQLInMemoryEvaluator(this, Arrays.asList(candidate), compilation,
+                            parameters, ec.getClassLoaderResolver());
+                        filter = obj ->
+                        {
+                            candidate[0] = obj;
+                            try
+                            {
+                                return !evaluator.execute(true, false, false, false, false).isEmpty();
+                            }
+                            finally
+                            {
+                                candidate[0] = null;
+                            }
+                        };
+                    }
+                    results = new XMLQueryResult(this, mconn, candidateList, filter, range[0], range[1]);
+                }
+                else if (candidateList.isFilterComplete())
+                {
+                    // Only unmarshal the candidates in the range, and don't evaluate the filter on them
+                    candidateList.restrictToRange(range[0], range[1]);
+                    applyFilter = false;
+                    applyRange = false;
+                }
+            }
+            if (results == null)
+            {
+                // Apply any result restrictions to the XML XPath results
+                JavaQueryInMemoryEvaluator resultMapper = new JDOQLInMemoryEvaluator(this, candidates, compilation,
+                    parameters, ec.getClassLoaderResolver());
+                results = resultMapper.execute(applyFilter, true, true, true, applyRange);
+            }
 
             if (NucleusLogger.QUERY.isDebugEnabled())
             {
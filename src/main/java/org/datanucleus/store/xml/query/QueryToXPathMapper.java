@@ -0,0 +1,603 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import java.util.List;
+import java.util.Map;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.FieldPersistenceModifier;
+import org.datanucleus.metadata.FieldRole;
+import org.datanucleus.metadata.RelationType;
+import org.datanucleus.store.query.QueryUtils;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.Literal;
+import org.datanucleus.store.query.expression.ParameterExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.store.xml.XMLUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Mapper to convert the filter of a query into an XPath predicate on the elements of the candidate objects, so that only
+ * elements that can match the filter are unmarshalled. The predicate selects a superset of the matching objects; the query
+ * is still evaluated in-memory on the objects selected, so any part of the filter that cannot be converted (or whose XPath
+ * semantics could differ from Java) is simply left to the in-memory evaluation.
+ * <p>
+ * Supports comparisons of (non-relation) String, integral, boolean and enum fields of the candidate with literals and
+ * parameters, String startsWith/endsWith/equals, and combinations of these using AND/OR/NOT.
+ * </p>
+ * <p>
+ * The predicate is evaluated directly against the DOM element of each object (with XPath 1.0 semantics, and its XPath form
+ * available from toString() for logging), since the JDK XPath implementation builds its own model of the document for
+ * evaluation and is then slower than unmarshalling all of the objects.
+ * </p>
+ */
+public class QueryToXPathMapper
+{
+    final QueryCompilation compilation;
+
+    final Map parameters;
+
+    final ClassLoaderResolver clr;
+
+    /** Metadata of the class that the predicate is being generated for. */
+    AbstractClassMetaData cmd;
+
+    /**
+     * Constructor.
+     * @param compilation Compilation of the query
+     * @param parameters Parameter values for the query execution
+     * @param clr ClassLoader resolver
+     */
+    public QueryToXPathMapper(QueryCompilation compilation, Map parameters, ClassLoaderResolver clr)
+    {
+        this.compilation = compilation;
+        this.parameters = parameters;
+        this.clr = clr;
+    }
+
+    /**
+     * Method to return the predicate for the elements of objects of the specified class, that selects a superset of the
+     * objects that match the filter.
+     * @param candidateCmd Metadata for the (candidate) class
+     * @return The predicate, or null if no part of the filter can be converted
+     */
+    public Predicate getPredicateForClass(AbstractClassMetaData candidateCmd)
+    {
+        if (compilation == null || compilation.getExprFilter() == null || compilation.getSubqueryAliases() != null)
+        {
+            return null;
+        }
+
+        this.cmd = candidateCmd;
+        return compile(compilation.getExprFilter());
+    }
+
+    /**
+     * Accessor for whether the specified predicate (from getPredicateForClass) applies the whole of the filter, so the
+     * objects it selects need no in-memory evaluation of the filter.
+     * @param predicate The predicate for a class (or null if none)
+     * @return Whether the filter is fully applied by the predicate (true when there is no filter)
+     */
+    public boolean isFilterComplete(Predicate predicate)
+    {
+        if (compilation == null || compilation.getExprFilter() == null)
+        {
+            return true;
+        }
+        return predicate != null && predicate.exact && compilation.getSubqueryAliases() == null;
+    }
+
+    /**
+     * Predicate for (part of) the filter, evaluated against the element of an object.
+     */
+    public abstract static class Predicate
+    {
+        /** Whether this selects exactly the objects matching the (part of the) filter, rather than a superset. */
+        boolean exact = true;
+
+        /**
+         * Method to evaluate the predicate for the element of an object.
+         * @param element The element
+         * @return Whether the object can match the filter
+         */
+        public abstract boolean matches(Element element);
+    }
+
+    static class AndPredicate extends Predicate
+    {
+        final Predicate left;
+        final Predicate right;
+
+        AndPredicate(Predicate left, Predicate right)
+        {
+            this.left = left;
+            this.right = right;
+            this.exact = left.exact && right.exact;
+        }
+
+        public boolean matches(Element element)
+        {
+            return left.matches(element) && right.matches(element);
+        }
+
+        public String toString()
+        {
+            return "(" + left + " and " + right + ")";
+        }
+    }
+
+    static class OrPredicate extends Predicate
+    {
+        final Predicate left;
+        final Predicate right;
+
+        OrPredicate(Predicate left, Predicate right)
+        {
+            this.left = left;
+            this.right = right;
+            this.exact = left.exact && right.exact;
+        }
+
+        public boolean matches(Element element)
+        {
+            return left.matches(element) || right.matches(element);
+        }
+
+        public String toString()
+        {
+            return "(" + left + " or " + right + ")";
+        }
+    }
+
+    static class NotPredicate extends Predicate
+    {
+        final Predicate pred;
+
+        NotPredicate(Predicate pred)
+        {
+            this.pred = pred;
+        }
+
+        public boolean matches(Element element)
+        {
+            return !pred.matches(element);
+        }
+
+        public String toString()
+        {
+            return "not(" + pred + ")";
+        }
+    }
+
+    /**
+     * Test of the value of a member, which is in the child element for the member, or the attribute when mapped as an
+     * attribute. A member with no value (null) is not present in the XML, so fails all tests.
+     */
+    static class MemberPredicate extends Predicate
+    {
+        enum Test
+        {
+            EXISTS, EQUALS, STARTS_WITH, ENDS_WITH, NUMBER_EQ, NUMBER_LT, NUMBER_LTEQ, NUMBER_GT, NUMBER_GTEQ
+        }
+
+        final String name;
+        final Test test;
+        final String value;
+        final double number;
+
+        MemberPredicate(String name, Test test, String value)
+        {
+            this.name = name;
+            this.test = test;
+            this.value = value;
+            this.number = Double.NaN;
+        }
+
+        MemberPredicate(String name, Test test, double number)
+        {
+            this.name = name;
+            this.test = test;
+            this.value = null;
+            this.number = number;
+        }
+
+        public boolean matches(Element element)
+        {
+            String str = XMLUtils.getKeyValue(element, name);
+            if (str == null)
+            {
+                return false;
+            }
+
+            switch (test)
+            {
+                case EQUALS:
+                    return str.equals(value);
+                case STARTS_WITH:
+                    return str.startsWith(value);
+                case ENDS_WITH:
+                    return str.endsWith(value);
+                case NUMBER_EQ:
+                    return getNumber(str) == number;
+                case NUMBER_LT:
+                    return getNumber(str) < number;
+                case NUMBER_LTEQ:
+                    return getNumber(str) <= number;
+                case NUMBER_GT:
+                    return getNumber(str) > number;
+                case NUMBER_GTEQ:
+                    return getNumber(str) >= number;
+                case EXISTS:
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Equivalent of XPath number() on the text of the member, giving NaN (which fails all comparisons) when not a number.
+         */
+        private static double getNumber(String str)
+        {
+            try
+            {
+                return Double.parseDouble(str.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                return Double.NaN;
+            }
+        }
+
+        public String toString()
+        {
+            String path = "(" + name + "|@" + name + ")";
+            switch (test)
+            {
+                case EQUALS:
+                    return path + " = " + quote(value);
+                case STARTS_WITH:
+                    return "starts-with(" + path + ", " + quote(value) + ")";
+                case ENDS_WITH:
+                    return "substring(" + path + ", string-length(" + path + ") - " + value.length() + " + 1) = " + quote(value);
+                case NUMBER_EQ:
+                    return "number(" + path + ") = " + number;
+                case NUMBER_LT:
+                    return "number(" + path + ") < " + number;
+                case NUMBER_LTEQ:
+                    return "number(" + path + ") <= " + number;
+                case NUMBER_GT:
+                    return "number(" + path + ") > " + number;
+                case NUMBER_GTEQ:
+                    return "number(" + path + ") >= " + number;
+                case EXISTS:
+                default:
+                    return path;
+            }
+        }
+
+        private static String quote(String str)
+        {
+            return str.indexOf('\'') < 0 ? "'" + str + "'" : "\"" + str + "\"";
+        }
+    }
+
+    private Predicate compile(Expression expr)
+    {
+        if (expr instanceof DyadicExpression)
+        {
+            Expression.Operator op = expr.getOperator();
+            if (op == Expression.OP_AND)
+            {
+                Predicate left = compile(expr.getLeft());
+                Predicate right = compile(expr.getRight());
+                if (left == null || right == null)
+                {
+                    // Use whichever side we can convert; the other side is applied in-memory
+                    Predicate pred = (left != null ? left : right);
+                    if (pred != null)
+                    {
+                        pred.exact = false;
+                    }
+                    return pred;
+                }
+                return new AndPredicate(left, right);
+            }
+            else if (op == Expression.OP_OR)
+            {
+                Predicate left = compile(expr.getLeft());
+                Predicate right = compile(expr.getRight());
+                if (left == null || right == null)
+                {
+                    return null;
+                }
+                return new OrPredicate(left, right);
+            }
+            else if (op == Expression.OP_NOT)
+            {
+                // Negation of a superset is not a superset, so only convert when exact
+                Predicate pred = compile(expr.getLeft());
+                return (pred != null && pred.exact) ? new NotPredicate(pred) : null;
+            }
+            else if (op == Expression.OP_EQ || op == Expression.OP_NOTEQ || op == Expression.OP_LT || op == Expression.OP_LTEQ ||
+                op == Expression.OP_GT || op == Expression.OP_GTEQ)
+            {
+                return compileComparison(expr.getLeft(), (Expression.DyadicOperator)op, expr.getRight());
+            }
+        }
+        else if (expr instanceof PrimaryExpression)
+        {
+            // Boolean field
+            AbstractMemberMetaData mmd = getMemberForExpression(expr);
+            if (mmd != null && (mmd.getType() == boolean.class || mmd.getType() == Boolean.class))
+            {
+                return new MemberPredicate(getValueName(mmd), MemberPredicate.Test.EQUALS, "true");
+            }
+        }
+        else if (expr instanceof InvokeExpression)
+        {
+            return compileInvoke((InvokeExpression)expr);
+        }
+        return null;
+    }
+
+    private Predicate compileComparison(Expression left, Expression.DyadicOperator op, Expression right)
+    {
+        AbstractMemberMetaData mmd = getMemberForExpression(left);
+        Expression valueExpr = right;
+        if (mmd == null)
+        {
+            // Try "value op field"
+            mmd = getMemberForExpression(right);
+            valueExpr = left;
+            op = reverseOperator(op);
+        }
+        if (mmd == null || !isValueExpression(valueExpr))
+        {
+            return null;
+        }
+
+        Object value = getValue(valueExpr);
+        String name = getValueName(mmd);
+        Class type = mmd.getType();
+        if (value == null)
+        {
+            // Comparison with null; a null field is not present in the XML
+            if (op == Expression.OP_EQ)
+            {
+                return new NotPredicate(new MemberPredicate(name, MemberPredicate.Test.EXISTS, null));
+            }
+            else if (op == Expression.OP_NOTEQ)
+            {
+                return new MemberPredicate(name, MemberPredicate.Test.EXISTS, null);
+            }
+            return null;
+        }
+
+        String strValue = null;
+        if (type == String.class || type.isEnum())
+        {
+            // String comparison (only equality is possible in XPath 1.0)
+            if (value instanceof String || value instanceof Character)
+            {
+                strValue = value.toString();
+            }
+            else if (type.isEnum() && value instanceof Enum)
+            {
+                strValue = ((Enum)value).name();
+            }
+        }
+        else if (type == int.class || type == Integer.class || type == short.class || type == Short.class || type == byte.class || type == Byte.class)
+        {
+            // Integral values are within the exact range of an XPath number (double)
+            if (!(value instanceof Number) || value instanceof Float || value instanceof Double && ((Double)value).isNaN())
+            {
+                return null;
+            }
+            double number = ((Number)value).doubleValue();
+            if (op == Expression.OP_NOTEQ)
+            {
+                // A missing element (null wrapper) is not equal to any value
+                return new NotPredicate(new MemberPredicate(name, MemberPredicate.Test.NUMBER_EQ, number));
+            }
+            Predicate pred = new MemberPredicate(name, getNumberTest(op), number);
+            if (op != Expression.OP_EQ && !type.isPrimitive())
+            {
+                // XPath fails any ordering of a missing element (null wrapper), whereas the in-memory evaluation orders null
+                // before all values, so also select missing elements and leave the comparison to the in-memory evaluation
+                pred = new OrPredicate(new NotPredicate(new MemberPredicate(name, MemberPredicate.Test.EXISTS, null)), pred);
+                pred.exact = false;
+            }
+            return pred;
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            // Longs can exceed the exact range of an XPath number, so only compare the (canonical) string form for equality
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            {
+                strValue = value.toString();
+            }
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            if (value instanceof Boolean)
+            {
+                strValue = value.toString();
+            }
+        }
+        // Other types (e.g floating point, dates) are printed by JAXB in forms that XPath cannot compare reliably
+
+        if (strValue == null || (op != Expression.OP_EQ && op != Expression.OP_NOTEQ))
+        {
+            return null;
+        }
+        Predicate pred = new MemberPredicate(name, MemberPredicate.Test.EQUALS, strValue);
+        return op == Expression.OP_EQ ? pred : new NotPredicate(pred);
+    }
+
+    private Predicate compileInvoke(InvokeExpression invokeExpr)
+    {
+        AbstractMemberMetaData mmd = getMemberForExpression(invokeExpr.getLeft());
+        List<Expression> args = invokeExpr.getArguments();
+        if (mmd == null || mmd.getType() != String.class || args == null || args.size() != 1 || !isValueExpression(args.get(0)))
+        {
+            return null;
+        }
+        Object value = getValue(args.get(0));
+        if (!(value instanceof String))
+        {
+            return null;
+        }
+
+        String operation = invokeExpr.getOperation();
+        if (operation.equals("startsWith"))
+        {
+            return new MemberPredicate(getValueName(mmd), MemberPredicate.Test.STARTS_WITH, (String)value);
+        }
+        else if (operation.equals("endsWith"))
+        {
+            return new MemberPredicate(getValueName(mmd), MemberPredicate.Test.ENDS_WITH, (String)value);
+        }
+        else if (operation.equals("equals"))
+        {
+            return new MemberPredicate(getValueName(mmd), MemberPredicate.Test.EQUALS, (String)value);
+        }
+        return null;
+    }
+
+    /**
+     * Accessor for the metadata of the member of the class the predicate is being generated for that the expression refers to.
+     * @param expr The expression
+     * @return Metadata for the member, or null if not a member of the candidate that can be used in XPath
+     */
+    private AbstractMemberMetaData getMemberForExpression(Expression expr)
+    {
+        return getMemberForExpression(expr, cmd, compilation.getCandidateAlias(), clr);
+    }
+
+    /**
+     * Accessor for the metadata of the (basic, non-relation) member of the candidate that the expression refers to.
+     * @param expr The expression
+     * @param cmd Metadata for the (candidate) class
+     * @param candidateAlias Alias of the candidate in the query
+     * @param clr ClassLoader resolver
+     * @return Metadata for the member, or null if not a member of the candidate whose value is held in its XML element
+     */
+    static AbstractMemberMetaData getMemberForExpression(Expression expr, AbstractClassMetaData cmd, String candidateAlias,
+            ClassLoaderResolver clr)
+    {
+        if (!(expr instanceof PrimaryExpression) || expr.getLeft() != null)
+        {
+            return null;
+        }
+
+        List<String> tuples = ((PrimaryExpression)expr).getTuples();
+        String memberName = null;
+        if (tuples.size() == 1 && !tuples.get(0).equals(candidateAlias))
+        {
+            memberName = tuples.get(0);
+        }
+        else if (tuples.size() == 2 && tuples.get(0).equals(candidateAlias))
+        {
+            memberName = tuples.get(1);
+        }
+        if (memberName == null)
+        {
+            return null;
+        }
+
+        AbstractMemberMetaData mmd = cmd.getMetaDataForMember(memberName);
+        if (mmd == null || mmd.getPersistenceModifier() != FieldPersistenceModifier.PERSISTENT || mmd.getEmbeddedMetaData() != null ||
+            mmd.getRelationType(clr) != RelationType.NONE || mmd.hasContainer())
+        {
+            return null;
+        }
+        return mmd;
+    }
+
+    private boolean isValueExpression(Expression expr)
+    {
+        return expr instanceof Literal || expr instanceof ParameterExpression;
+    }
+
+    private Object getValue(Expression expr)
+    {
+        if (expr instanceof Literal)
+        {
+            return ((Literal)expr).getLiteral();
+        }
+        return QueryUtils.getValueForParameterExpression(parameters, (ParameterExpression)expr);
+    }
+
+    /**
+     * Accessor for the name of the element (or attribute) holding the value of the specified member.
+     * @param mmd Metadata for the member
+     * @return The name
+     */
+    private String getValueName(AbstractMemberMetaData mmd)
+    {
+        return XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_FIELD);
+    }
+
+    private static MemberPredicate.Test getNumberTest(Expression.DyadicOperator op)
+    {
+        if (op == Expression.OP_EQ)
+        {
+            return MemberPredicate.Test.NUMBER_EQ;
+        }
+        else if (op == Expression.OP_LT)
+        {
+            return MemberPredicate.Test.NUMBER_LT;
+        }
+        else if (op == Expression.OP_LTEQ)
+        {
+            return MemberPredicate.Test.NUMBER_LTEQ;
+        }
+        else if (op == Expression.OP_GT)
+        {
+            return MemberPredicate.Test.NUMBER_GT;
+        }
+        return MemberPredicate.Test.NUMBER_GTEQ;
+    }
+
+    private static Expression.DyadicOperator reverseOperator(Expression.DyadicOperator op)
+    {
+        if (op == Expression.OP_LT)
+        {
+            return Expression.OP_GT;
+        }
+        else if (op == Expression.OP_LTEQ)
+        {
+            return Expression.OP_GTEQ;
+        }
+        else if (op == Expression.OP_GT)
+        {
+            return Expression.OP_LT;
+        }
+        else if (op == Expression.OP_GTEQ)
+        {
+            return Expression.OP_LTEQ;
+        }
+        return op;
+    }
+}
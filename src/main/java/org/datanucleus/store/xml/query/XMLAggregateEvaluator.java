@@ -0,0 +1,523 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.FieldRole;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.Query.QueryType;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.store.query.inmemory.InMemoryQueryResult;
+import org.datanucleus.store.xml.XMLUtils;
+import org.datanucleus.util.NucleusLogger;
+import org.w3c.dom.Element;
+
+/**
+ * Evaluator for a query result made up of aggregates (count of the candidate, and min, max, sum and avg of numeric
+ * members), optionally grouped by members, that computes the result from the text of the member elements of the
+ * candidate elements, rather than unmarshalling each candidate object for the in-memory evaluator.
+ * <p>
+ * This is only possible when the candidates are exactly the objects that match the filter (see
+ * {@link XMLCandidateList#isFilterComplete()}), and when there are no unflushed changes to objects (since the values are
+ * taken from the XML). The result has the same values, types and group order as the in-memory evaluation, and whenever
+ * that can't be guaranteed (for example a member without a value, or text that isn't a valid number) no result is
+ * returned and the query is left to the in-memory evaluation.
+ * </p>
+ */
+public class XMLAggregateEvaluator
+{
+    enum Function
+    {
+        COUNT, MIN, MAX, SUM, AVG
+    }
+
+    /**
+     * Component of the result, either an aggregate or the value of a grouping member.
+     */
+    static class ResultComponent
+    {
+        /** The aggregate function (or null if the value of a grouping member). */
+        final Function function;
+
+        /** Name of the member aggregated, or grouped (or null for the count of the candidate). */
+        final String memberName;
+
+        /** Position of the grouping member (or -1 if an aggregate). */
+        final int groupingPosition;
+
+        ResultComponent(Function function, String memberName, int groupingPosition)
+        {
+            this.function = function;
+            this.memberName = memberName;
+            this.groupingPosition = groupingPosition;
+        }
+    }
+
+    /**
+     * Accumulator for the values of an aggregate over the objects of a group.
+     */
+    static class Accumulator
+    {
+        long count = 0;
+        long longSum = 0;
+        double doubleSum = 0;
+        Number min = null;
+        Number max = null;
+    }
+
+    final Query query;
+
+    final QueryCompilation compilation;
+
+    final ClassLoaderResolver clr;
+
+    /**
+     * Constructor.
+     * @param query The query
+     * @param compilation Compilation of the query
+     * @param clr ClassLoader resolver
+     */
+    public XMLAggregateEvaluator(Query query, QueryCompilation compilation, ClassLoaderResolver clr)
+    {
+        this.query = query;
+        this.compilation = compilation;
+        this.clr = clr;
+    }
+
+    /**
+     * Method to evaluate the result of the query from the XML of the candidates.
+     * @param candidates The candidates
+     * @return The results, or null if the result cannot be evaluated from the XML
+     */
+    public Collection execute(XMLCandidateList candidates)
+    {
+        ExecutionContext ec = query.getExecutionContext();
+        Expression[] resultExprs = compilation.getExprResult();
+        if (resultExprs == null || query.getType() != QueryType.SELECT || query.getResultClass() != null || query.getResultDistinct() ||
+            query.getRange() != null || compilation.getExprOrdering() != null || compilation.getExprHaving() != null ||
+            compilation.getSubqueryAliases() != null || !candidates.isFilterComplete() || !ec.getObjectsToBeFlushed().isEmpty())
+        {
+            return null;
+        }
+
+        // Check that the grouping is of basic members, and the result of aggregates and grouping members
+        Expression[] groupingExprs = compilation.getExprGrouping() != null ? compilation.getExprGrouping() : new Expression[0];
+        String[] groupingNames = new String[groupingExprs.length];
+        for (int i = 0; i < groupingExprs.length; i++)
+        {
+            groupingNames[i] = getMemberName(groupingExprs[i]);
+            if (groupingNames[i] == null)
+            {
+                return null;
+            }
+        }
+        ResultComponent[] components = new ResultComponent[resultExprs.length];
+        boolean hasAggregate = false;
+        for (int i = 0; i < resultExprs.length; i++)
+        {
+            components[i] = getResultComponent(resultExprs[i], groupingNames);
+            if (components[i] == null)
+            {
+                return null;
+            }
+            hasAggregate |= (components[i].function != null);
+        }
+        if (!hasAggregate)
+        {
+            return null;
+        }
+
+        // Resolve the members for each candidate class, checking their types
+        int numClasses = candidates.getNumberOfClasses();
+        if (numClasses == 0)
+        {
+            return null;
+        }
+        Class[][] groupingTypes = new Class[numClasses][groupingNames.length];
+        String[][] groupingElementNames = new String[numClasses][groupingNames.length];
+        Class[][] componentTypes = new Class[numClasses][components.length];
+        String[][] componentElementNames = new String[numClasses][components.length];
+        for (int c = 0; c < numClasses; c++)
+        {
+            AbstractClassMetaData cmd = candidates.getMetaDataForClass(c);
+            for (int i = 0; i < groupingNames.length; i++)
+            {
+                AbstractMemberMetaData mmd = getMemberForExpression(groupingExprs[i], cmd);
+                if (mmd == null || !isGroupingType(mmd.getType()))
+                {
+                    return null;
+                }
+                groupingTypes[c][i] = mmd.getType();
+                groupingElementNames[c][i] = XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_FIELD);
+            }
+            for (int i = 0; i < components.length; i++)
+            {
+                if (components[i].function != null && components[i].memberName != null)
+                {
+                    AbstractMemberMetaData mmd = getMemberForExpression(((InvokeExpression)resultExprs[i]).getArguments().get(0), cmd);
+                    if (mmd == null || !isNumericType(mmd.getType()))
+                    {
+                        return null;
+                    }
+                    componentTypes[c][i] = mmd.getType();
+                    componentElementNames[c][i] = XMLUtils.getElementNameForMember(mmd, FieldRole.ROLE_FIELD);
+                }
+            }
+        }
+
+        // Accumulate the aggregates for each group, taking the values from the text of the member elements. The groups are
+        // in the order of their grouping values, as for the in-memory evaluation
+        Map<List<Object>, Accumulator[]> groups = new TreeMap<>(new GroupingComparator());
+        try
+        {
+            for (int c = 0; c < numClasses; c++)
+            {
+                for (Element element : candidates.getElementsForClass(c))
+                {
+                    List<Object> groupingValues = new ArrayList<>(groupingNames.length);
+                    for (int i = 0; i < groupingNames.length; i++)
+                    {
+                        String text = XMLUtils.getKeyValue(element, groupingElementNames[c][i]);
+                        if (text == null)
+                        {
+                            // Null grouping value; leave to the in-memory evaluation
+                            return null;
+                        }
+                        groupingValues.add(getGroupingValue(text, groupingTypes[c][i]));
+                    }
+
+                    Accumulator[] accumulators = groups.computeIfAbsent(groupingValues, k -> newAccumulators(components.length));
+                    for (int i = 0; i < components.length; i++)
+                    {
+                        if (components[i].function == null)
+                        {
+                            continue;
+                        }
+                        Accumulator acc = accumulators[i];
+                        acc.count++;
+                        if (components[i].memberName != null)
+                        {
+                            String text = XMLUtils.getKeyValue(element, componentElementNames[c][i]);
+                            if (text == null)
+                            {
+                                // Null value; leave to the in-memory evaluation
+                                return null;
+                            }
+                            accumulate(acc, getNumericValue(text, componentTypes[c][i]));
+                        }
+                    }
+                }
+            }
+        }
+        catch (NumberFormatException nfe)
+        {
+            NucleusLogger.QUERY.debug("Unable to evaluate result of query from the XML : " + nfe.getMessage());
+            return null;
+        }
+
+        if (groups.isEmpty() && groupingNames.length == 0)
+        {
+            // Aggregates of no objects
+            groups.put(new ArrayList<>(), newAccumulators(components.length));
+        }
+
+        List results = new ArrayList(groups.size());
+        for (Map.Entry<List<Object>, Accumulator[]> group : groups.entrySet())
+        {
+            Object[] row = new Object[components.length];
+            for (int i = 0; i < components.length; i++)
+            {
+                ResultComponent component = components[i];
+                if (component.function == null)
+                {
+                    row[i] = group.getKey().get(component.groupingPosition);
+                }
+                else
+                {
+                    row[i] = getAggregateValue(component.function, group.getValue()[i], componentTypes[0][i]);
+                }
+            }
+            results.add(row.length == 1 ? row[0] : row);
+        }
+        if (NucleusLogger.QUERY.isDebugEnabled())
+        {
+            NucleusLogger.QUERY.debug("Evaluated result of query from the XML of " + candidates.size() + " candidates");
+        }
+        return new InMemoryQueryResult(results, ec.getApiAdapter());
+    }
+
+    /**
+     * Accessor for the component of the result for the specified result expression.
+     * @param expr The result expression
+     * @param groupingNames Names of the grouping members
+     * @return The component, or null if not an aggregate (of the candidate or a member) or a grouping member
+     */
+    private ResultComponent getResultComponent(Expression expr, String[] groupingNames)
+    {
+        if (expr instanceof InvokeExpression)
+        {
+            InvokeExpression invokeExpr = (InvokeExpression)expr;
+            List<Expression> args = invokeExpr.getArguments();
+            if (invokeExpr.getLeft() != null || args == null || args.size() != 1)
+            {
+                return null;
+            }
+
+            Function function = null;
+            for (Function f : Function.values())
+            {
+                if (f.name().equalsIgnoreCase(invokeExpr.getOperation()))
+                {
+                    function = f;
+                }
+            }
+            if (function == null)
+            {
+                return null;
+            }
+
+            Expression arg = args.get(0);
+            if (function == Function.COUNT)
+            {
+                // Only count of the candidate, since the in-memory count of a member includes objects with a null value
+                return isCandidate(arg) ? new ResultComponent(function, null, -1) : null;
+            }
+            String memberName = getMemberName(arg);
+            return memberName != null ? new ResultComponent(function, memberName, -1) : null;
+        }
+
+        String memberName = getMemberName(expr);
+        for (int i = 0; memberName != null && i < groupingNames.length; i++)
+        {
+            if (memberName.equals(groupingNames[i]))
+            {
+                return new ResultComponent(null, memberName, i);
+            }
+        }
+        return null;
+    }
+
+    private boolean isCandidate(Expression expr)
+    {
+        if (!(expr instanceof PrimaryExpression) || expr.getLeft() != null)
+        {
+            return false;
+        }
+        List<String> tuples = ((PrimaryExpression)expr).getTuples();
+        return tuples.size() == 1 && tuples.get(0).equals(compilation.getCandidateAlias());
+    }
+
+    /**
+     * Accessor for the name of the member of the candidate that the expression refers to.
+     * @param expr The expression
+     * @return Name of the member, or null if not a member of the candidate
+     */
+    private String getMemberName(Expression expr)
+    {
+        if (!(expr instanceof PrimaryExpression) || expr.getLeft() != null)
+        {
+            return null;
+        }
+        List<String> tuples = ((PrimaryExpression)expr).getTuples();
+        if (tuples.size() == 1 && !tuples.get(0).equals(compilation.getCandidateAlias()))
+        {
+            return tuples.get(0);
+        }
+        else if (tuples.size() == 2 && tuples.get(0).equals(compilation.getCandidateAlias()))
+        {
+            return tuples.get(1);
+        }
+        return null;
+    }
+
+    private AbstractMemberMetaData getMemberForExpression(Expression expr, AbstractClassMetaData cmd)
+    {
+        return QueryToXPathMapper.getMemberForExpression(expr, cmd, compilation.getCandidateAlias(), clr);
+    }
+
+    private static boolean isGroupingType(Class type)
+    {
+        return type == String.class || type == boolean.class || type == Boolean.class || isIntegralType(type);
+    }
+
+    private static boolean isNumericType(Class type)
+    {
+        return isIntegralType(type) || type == double.class || type == Double.class || type == float.class || type == Float.class;
+    }
+
+    private static boolean isIntegralType(Class type)
+    {
+        return type == int.class || type == Integer.class || type == long.class || type == Long.class || type == short.class ||
+            type == Short.class;
+    }
+
+    /**
+     * Accessor for the value of a grouping member from the text of its element, as the type of the member.
+     * @param text The text
+     * @param type Type of the member
+     * @return The value
+     * @throws NumberFormatException if the text is not valid for the type
+     */
+    private static Object getGroupingValue(String text, Class type)
+    {
+        if (type == String.class)
+        {
+            return text;
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            String str = text.trim();
+            if (!str.equals("true") && !str.equals("false"))
+            {
+                throw new NumberFormatException("Invalid boolean \"" + text + "\"");
+            }
+            return Boolean.valueOf(str);
+        }
+        return getNumericValue(text, type);
+    }
+
+    /**
+     * Accessor for the value of a numeric member from the text of its element, as the type of the member.
+     * @param text The text
+     * @param type Type of the member
+     * @return The value
+     * @throws NumberFormatException if the text is not a valid (finite) number of the type
+     */
+    private static Number getNumericValue(String text, Class type)
+    {
+        String str = text.trim();
+        if (type == int.class || type == Integer.class)
+        {
+            return Integer.valueOf(str);
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            return Long.valueOf(str);
+        }
+        else if (type == short.class || type == Short.class)
+        {
+            return Short.valueOf(str);
+        }
+
+        Number value = (type == float.class || type == Float.class) ? (Number)Float.valueOf(str) : (Number)Double.valueOf(str);
+        if (Double.isNaN(value.doubleValue()) || Double.isInfinite(value.doubleValue()))
+        {
+            throw new NumberFormatException("Non-finite number \"" + text + "\"");
+        }
+        return value;
+    }
+
+    private static Accumulator[] newAccumulators(int number)
+    {
+        Accumulator[] accumulators = new Accumulator[number];
+        for (int i = 0; i < number; i++)
+        {
+            accumulators[i] = new Accumulator();
+        }
+        return accumulators;
+    }
+
+    private static void accumulate(Accumulator acc, Number value)
+    {
+        boolean floating = (value instanceof Double || value instanceof Float);
+        if (floating)
+        {
+            acc.doubleSum += value.doubleValue();
+        }
+        else
+        {
+            acc.longSum += value.longValue();
+            acc.doubleSum += value.doubleValue();
+        }
+        if (acc.min == null || (floating ? value.doubleValue() < acc.min.doubleValue() : value.longValue() < acc.min.longValue()))
+        {
+            acc.min = value;
+        }
+        if (acc.max == null || (floating ? value.doubleValue() > acc.max.doubleValue() : value.longValue() > acc.max.longValue()))
+        {
+            acc.max = value;
+        }
+    }
+
+    /**
+     * Accessor for the value of an aggregate, with the type as given by the in-memory evaluation : count as Long, min and
+     * max as the type of the member, sum as Long (integral member) or Double (floating point member), and avg as Double.
+     * Aggregates other than count of no objects are null.
+     * @param function The aggregate function
+     * @param acc Accumulator for the aggregate
+     * @param type Type of the member aggregated
+     * @return The value
+     */
+    private static Object getAggregateValue(Function function, Accumulator acc, Class type)
+    {
+        if (function == Function.COUNT)
+        {
+            return Long.valueOf(acc.count);
+        }
+        else if (acc.count == 0)
+        {
+            return null;
+        }
+
+        switch (function)
+        {
+            case MIN:
+                return acc.min;
+            case MAX:
+                return acc.max;
+            case SUM:
+                return isIntegralType(type) ? (Object)Long.valueOf(acc.longSum) : (Object)Double.valueOf(acc.doubleSum);
+            case AVG:
+            default:
+                return Double.valueOf(acc.doubleSum / acc.count);
+        }
+    }
+
+    /**
+     * Comparator for the grouping values of groups, comparing each value in turn.
+     */
+    static class GroupingComparator implements Comparator<List<Object>>
+    {
+        @Override
+        public int compare(List<Object> values1, List<Object> values2)
+        {
+            for (int i = 0; i < values1.size(); i++)
+            {
+                int result = ((Comparable)values1.get(i)).compareTo(values2.get(i));
+                if (result != 0)
+                {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+}
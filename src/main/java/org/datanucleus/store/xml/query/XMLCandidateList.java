@@ -18,15 +18,15 @@ Contributors:
 package org.datanucleus.store.xml.query;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.xml.bind.JAXBException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
@@ -34,14 +34,23 @@ import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.query.AbstractCandidateLazyLoadList;
+import org.datanucleus.store.xml.ConnectionFactoryImpl.ManagedConnectionImpl;
 import org.datanucleus.store.xml.XMLStoreManager;
 import org.datanucleus.store.xml.XMLUtils;
 import org.datanucleus.util.NucleusLogger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * Wrapper for a List of candidate instances from XML. Loads the instances from the XML file lazily.
+ * When constructed the elements of the candidate objects of each class are taken from the document into an array, so
+ * retrieval of the object at any index just needs the unmarshalling of that element, and iterating through all
+ * candidates visits each element of the document once. The elements are taken with a single pass over each distinct container
+ * element, dispatching them to the candidate classes stored in that container by element name, so a polymorphic query
+ * doesn't scan a shared container once per class. When a {@link QueryToXPathMapper} is provided only the elements
+ * matching its predicate for the query filter are taken, and when that applies the whole filter a query range can be
+ * applied to the elements (see {@link #restrictToRange(long, long)}) before any object is unmarshalled.
  */
 public class XMLCandidateList extends AbstractCandidateLazyLoadList
 {
@@ -49,11 +58,26 @@ public class XMLCandidateList extends AbstractCandidateLazyLoadList
 
     boolean ignoreCache;
 
-    /** Number of objects per class, in same order as class meta-data. */
-    List<Integer> numberInstancesPerClass = null;
+    /** Elements of the candidate objects, per class, in same order as class meta-data. */
+    Element[][] elementsPerClass;
+
+    /** Index (in the list) of the first object of each class, in same order as class meta-data. */
+    int[] firstIndexPerClass;
+
+    /** Class of the objects for each class meta-data (resolved when first needed). */
+    Class[] classes;
+
+    /** Total number of candidate objects. */
+    int candidateSize = 0;
+
+    /** Position of the class of the last object retrieved, so that sequential retrieval doesn't need to search for the class. */
+    int currentClass = 0;
+
+    /** Whether the candidates are exactly the objects matching the query filter (so it needs no in-memory evaluation). */
+    boolean filterComplete;
 
     /**
-     * Constructor for the lazy loaded ODF candidate list.
+     * Constructor for the lazy loaded XML candidate list.
      * @param cls The candidate class
      * @param subclasses Whether to include subclasses
      * @param ec execution context
@@ -63,74 +87,196 @@ public class XMLCandidateList extends AbstractCandidateLazyLoadList
      */
     public XMLCandidateList(Class cls, boolean subclasses, ExecutionContext ec, String cacheType,
             ManagedConnection mconn, boolean ignoreCache)
+    {
+        this(cls, subclasses, ec, cacheType, mconn, ignoreCache, null);
+    }
+
+    /**
+     * Constructor for the lazy loaded XML candidate list, restricting the candidates to those matching the predicate for
+     * the query filter.
+     * @param cls The candidate class
+     * @param subclasses Whether to include subclasses
+     * @param ec execution context
+     * @param cacheType Type of caching
+     * @param mconn Connection to the datastore
+     * @param ignoreCache Whether to ignore the cache on object retrieval
+     * @param filterMapper Mapper for the query filter to a predicate (or null if not restricting the candidates)
+     */
+    public XMLCandidateList(Class cls, boolean subclasses, ExecutionContext ec, String cacheType,
+            ManagedConnection mconn, boolean ignoreCache, QueryToXPathMapper filterMapper)
     {
         super(cls, subclasses, ec, cacheType);
         this.mconn = mconn;
         this.ignoreCache = ignoreCache;
 
-        // Count the instances per class by scanning the associated worksheets
-        Document doc = (Document) mconn.getConnection();
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        numberInstancesPerClass = new ArrayList<Integer>();
-        Iterator<AbstractClassMetaData> cmdIter = cmds.iterator();
-        while (cmdIter.hasNext())
+        // Find the container(s) of the objects of each class, noting which classes have objects in each container
+        elementsPerClass = new Element[cmds.size()][];
+        firstIndexPerClass = new int[cmds.size()];
+        classes = new Class[cmds.size()];
+        QueryToXPathMapper.Predicate[] predicates = new QueryToXPathMapper.Predicate[cmds.size()];
+        filterComplete = (filterMapper != null);
+        List<Node> containers = new ArrayList<>();
+        Map<Node, Map<String, List<Integer>>> classesPerContainer = new IdentityHashMap<>();
+        for (int i = 0; i < cmds.size(); i++)
         {
-            AbstractClassMetaData cmd = cmdIter.next();
+            AbstractClassMetaData cmd = cmds.get(i);
 
-            Element el = null;
-            String expression = XMLUtils.getXPathForClass(cmd);
-            if (expression == null)
+            predicates[i] = (filterMapper != null) ? filterMapper.getPredicateForClass(cmd) : null;
+            if (predicates[i] != null && NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug("Restricting candidates of " + cmd.getFullClassName() + " to elements matching " + predicates[i]);
+            }
+            if (filterMapper != null && !filterMapper.isFilterComplete(predicates[i]))
             {
-                el = doc.getDocumentElement();
+                filterComplete = false;
             }
-            else
+
+            // Take the container from each document (partition) holding objects of this class
+            String classElementName = XMLUtils.getElementNameForClass(cmd);
+            for (Document doc : ((ManagedConnectionImpl)mconn).getDocumentsForClass(cmd))
             {
+                Node container = null;
                 try
                 {
-                    el = (Element) xpath.evaluate(expression, doc, XPathConstants.NODE);
+                    container = XMLUtils.getContainerForClass(doc, cmd);
                 }
                 catch (XPathExpressionException e)
                 {
-                    NucleusLogger.DATASTORE_RETRIEVE.warn("Exception evaluating XPath " + expression, e);
+                    NucleusLogger.DATASTORE_RETRIEVE.warn("Exception evaluating XPath " + XMLUtils.getXPathForClass(cmd), e);
+                }
+                if (container == null)
+                {
+                    continue;
+                }
+
+                Map<String, List<Integer>> containerClasses = classesPerContainer.get(container);
+                if (containerClasses == null)
+                {
+                    containerClasses = new HashMap<>();
+                    classesPerContainer.put(container, containerClasses);
+                    containers.add(container);
                 }
+                containerClasses.computeIfAbsent(classElementName, k -> new ArrayList<>(1)).add(i);
             }
+        }
 
-            int size = 0;
-            if (el != null)
+        // Scan each container once, dispatching the elements to the classes by element name
+        List<List<Element>> elements = new ArrayList<>(cmds.size());
+        for (int i = 0; i < cmds.size(); i++)
+        {
+            elements.add(new ArrayList<>());
+        }
+        for (Node container : containers)
+        {
+            Map<String, List<Integer>> containerClasses = classesPerContainer.get(container);
+            for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
             {
-                String classElementName = XMLUtils.getElementNameForClass(cmd);
-                for (int i = 0; i < el.getChildNodes().getLength(); i++)
+                List<Integer> classNumbers = (child instanceof Element) ? containerClasses.get(child.getNodeName()) : null;
+                if (classNumbers != null)
                 {
-                    if (el.getChildNodes().item(i) instanceof Element)
+                    for (int classNumber : classNumbers)
                     {
-                        Element elem = (Element)el.getChildNodes().item(i);
-                        if (classElementName.equals(elem.getNodeName()))
+                        if (predicates[classNumber] == null || predicates[classNumber].matches((Element)child))
                         {
-                            // Valid element for an object of this type
-                            size++;
+                            // Valid element for an object of this type (that can match the filter)
+                            elements.get(classNumber).add((Element)child);
                         }
                     }
-                }                
+                }
             }
-            numberInstancesPerClass.add(size);
+        }
+
+        for (int i = 0; i < cmds.size(); i++)
+        {
+            elementsPerClass[i] = elements.get(i).toArray(new Element[elements.get(i).size()]);
+            firstIndexPerClass[i] = candidateSize;
+            candidateSize += elementsPerClass[i].length;
+        }
+
+        if (filterComplete && filterMapper.compilation != null && filterMapper.compilation.getExprFilter() != null &&
+            !ec.getObjectsToBeFlushed().isEmpty())
+        {
+            // Changes to objects not yet flushed are not in the XML, so the filter has to be evaluated on the objects
+            filterComplete = false;
         }
     }
 
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.query.AbstractLazyLoadList#getSize()
+    /**
+     * Accessor for whether the candidates are exactly the objects that match the query filter, so that the filter needs
+     * no in-memory evaluation on them. This is the case when there is no filter, or when the predicate of the
+     * {@link QueryToXPathMapper} fully applies the filter for all candidate classes (and there are no unflushed changes).
+     * @return Whether the filter is fully applied to the candidates
      */
-    @Override
-    protected int getSize()
+    public boolean isFilterComplete()
     {
-        int size = 0;
+        return filterComplete;
+    }
+
+    /**
+     * Method to restrict the candidates to those in the specified range, so that the elements outside of the range are
+     * never unmarshalled. Must be called before any candidate is retrieved.
+     * @param fromIncl Index of the first candidate to retain
+     * @param toExcl Index after the last candidate to retain
+     */
+    public void restrictToRange(long fromIncl, long toExcl)
+    {
+        long from = Math.max(0, fromIncl);
+        long to = Math.min(candidateSize, toExcl);
+        if (from == 0 && to == candidateSize)
+        {
+            return;
+        }
 
-        Iterator<Integer> numberIter = numberInstancesPerClass.iterator();
-        while (numberIter.hasNext())
+        int size = 0;
+        for (int i = 0; i < elementsPerClass.length; i++)
         {
-            size += numberIter.next();
+            long classFrom = Math.max(from, firstIndexPerClass[i]) - firstIndexPerClass[i];
+            long classTo = Math.min(to, firstIndexPerClass[i] + elementsPerClass[i].length) - firstIndexPerClass[i];
+            elementsPerClass[i] = (classFrom < classTo) ?
+                Arrays.copyOfRange(elementsPerClass[i], (int)classFrom, (int)classTo) : new Element[0];
+            firstIndexPerClass[i] = size;
+            size += elementsPerClass[i].length;
         }
+        candidateSize = size;
+        currentClass = 0;
+    }
 
-        return size;
+    /**
+     * Accessor for the number of candidate classes.
+     * @return The number of classes
+     */
+    int getNumberOfClasses()
+    {
+        return cmds.size();
+    }
+
+    /**
+     * Accessor for the metadata of a candidate class.
+     * @param classNumber Position of the class
+     * @return Metadata for the class
+     */
+    AbstractClassMetaData getMetaDataForClass(int classNumber)
+    {
+        return cmds.get(classNumber);
+    }
+
+    /**
+     * Accessor for the elements of the candidate objects of a candidate class. The returned array must not be modified.
+     * @param classNumber Position of the class
+     * @return The elements
+     */
+    Element[] getElementsForClass(int classNumber)
+    {
+        return elementsPerClass[classNumber];
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractLazyLoadList#getSize()
+     */
+    @Override
+    protected int getSize()
+    {
+        return candidateSize;
     }
 
     /* (non-Javadoc)
@@ -139,84 +285,38 @@ public class XMLCandidateList extends AbstractCandidateLazyLoadList
     @Override
     protected Object retrieveObjectForIndex(int index)
     {
-        if (index < 0 || index >= getSize())
+        if (index < 0 || index >= candidateSize)
         {
             throw new NoSuchElementException();
         }
 
-        Document doc = (Document) mconn.getConnection();
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        Iterator<AbstractClassMetaData> cmdIter = cmds.iterator();
-        Iterator<Integer> numIter = numberInstancesPerClass.iterator();
-        int first = 0;
-        int last = -1;
-        while (cmdIter.hasNext())
+        // Find the class of this object, starting from the class of the last object retrieved
+        if (index < firstIndexPerClass[currentClass])
+        {
+            currentClass = 0;
+        }
+        while (index >= firstIndexPerClass[currentClass] + elementsPerClass[currentClass].length)
         {
-            final AbstractClassMetaData cmd = cmdIter.next();
-            int number = numIter.next();
-            last = first+number;
+            currentClass++;
+        }
 
-            if (index >= first && index < last)
-            {
-                // Object is of this candidate type, so find the object
-                ClassLoaderResolver clr = ec.getClassLoaderResolver();
-                int current = first;
-                Element el = null;
-                String expression = XMLUtils.getXPathForClass(cmd);
-                if (expression == null)
-                {
-                    el = doc.getDocumentElement();
-                }
-                else
-                {
-                    try
-                    {
-                        el = (Element) xpath.evaluate(expression, doc, XPathConstants.NODE);
-                    }
-                    catch (XPathExpressionException e)
-                    {
-                        NucleusLogger.DATASTORE_RETRIEVE.warn("Exception evaluating XPath " + expression, e);
-                    }
-                }
+        AbstractClassMetaData cmd = cmds.get(currentClass);
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        if (classes[currentClass] == null)
+        {
+            classes[currentClass] = clr.classForName(cmd.getFullClassName());
+        }
 
-                if (el != null)
-                {
-                    // Get name of the element that objects of this type are stored under
-                    Class cls = clr.classForName(cmd.getFullClassName());
-                    String classElementName = XMLUtils.getElementNameForClass(cmd);
-                    for (int i = 0; i < el.getChildNodes().getLength(); i++)
-                    {
-                        if (el.getChildNodes().item(i) instanceof Element)
-                        {
-                            Element elem = (Element)el.getChildNodes().item(i);
-                            if (classElementName.equals(elem.getNodeName()))
-                            {
-                                // Valid element for an object of this type so unmarshall it and add it
-                                if (current == index)
-                                {
-                                    try
-                                    {
-                                        Object obj = ((XMLStoreManager)ec.getStoreManager()).getJAXBHandler().unmarshall(cls, el.getChildNodes().item(i), clr);
-                                        XMLUtils.prepareXMLObjectForUse(obj, ec, cmd);
-                                        return obj;
-                                    }
-                                    catch (JAXBException jaxbe)
-                                    {
-                                        throw new NucleusUserException("Error in extracting object from XML", jaxbe);
-                                    }
-                                }
-
-                                current++;
-                            }
-                        }
-                    }
-                }
-            }
-            else
-            {
-                first += number;
-            }
+        Element elem = elementsPerClass[currentClass][index - firstIndexPerClass[currentClass]];
+        try
+        {
+            Object obj = ((XMLStoreManager)ec.getStoreManager()).getJAXBHandler().unmarshall(classes[currentClass], elem, clr);
+            XMLUtils.prepareXMLObjectForUse(obj, ec, cmd);
+            return obj;
+        }
+        catch (JAXBException jaxbe)
+        {
+            throw new NucleusUserException("Error in extracting object from XML", jaxbe);
         }
-        return null;
     }
-}
\ No newline at end of file
+}
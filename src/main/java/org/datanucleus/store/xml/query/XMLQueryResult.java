@@ -0,0 +1,461 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.connection.ManagedConnectionResourceListener;
+import org.datanucleus.store.query.AbstractQueryResult;
+import org.datanucleus.store.query.AbstractQueryResultIterator;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.Query.QueryType;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Result of a query whose results are the candidates matching the filter, in candidate order, where the results are
+ * read as they are accessed rather than when the query is executed. Each candidate is only unmarshalled (and, when the
+ * filter is not fully applied to the candidates, evaluated against the filter) when the results up to its position are
+ * required. The range of the query is applied as the candidates are read : when there is no filter to evaluate the
+ * candidates before the start of the range are skipped without being read, and in all cases the candidates after the
+ * end of the range are never read.
+ * <p>
+ * The objects are only held by the candidate list, which caches them according to the query "resultCacheType" (weakly
+ * by default), so iterating through the results of a query over a large number of objects doesn't hold them all in
+ * memory. When the connection is closed while the results are open (at the end of the transaction, or on execution
+ * when non-transactional) the remaining results are loaded if "datanucleus.query.loadResultsAtCommit" is set.
+ * </p>
+ * @param <E> Type of the results
+ */
+public class XMLQueryResult<E> extends AbstractQueryResult<E>
+{
+    private static final long serialVersionUID = 2375940147613285923L;
+
+    /** Candidates of the query. */
+    List<E> candidates;
+
+    /** Filter to evaluate on each candidate object (or null if all candidates match the filter). */
+    Predicate<Object> filter;
+
+    /** Number of candidates matching the filter to skip before the first result. */
+    long skip;
+
+    /** Maximum number of results. */
+    long maxResults;
+
+    /** Positions (in the candidates) of the results read so far, when evaluating the filter. */
+    int[] resultPositions;
+
+    /** Number of results read so far, when evaluating the filter. */
+    int numResults = 0;
+
+    /** Number of candidates matching the filter that have been skipped so far. */
+    long numSkipped = 0;
+
+    /** Position of the next candidate to read, when evaluating the filter. */
+    int nextCandidate = 0;
+
+    /** Results loaded when the connection was closed (or null if not loaded). */
+    List<E> loadedResults = null;
+
+    /**
+     * Constructor for the results of a query, registering with the connection it was executed with so that the results
+     * can be loaded before the connection is closed.
+     * @param query The query
+     * @param mconn Connection the query was executed with
+     * @param candidates Candidates of the query
+     * @param filter Filter to evaluate on each candidate object (or null if all candidates match the filter)
+     * @param fromIncl Index of the first result (in the results matching the filter)
+     * @param toExcl Index after the last result (in the results matching the filter)
+     */
+    public XMLQueryResult(Query query, final ManagedConnection mconn, List<E> candidates, Predicate<Object> filter, long fromIncl,
+            long toExcl)
+    {
+        super(query);
+        this.candidates = candidates;
+        this.filter = filter;
+        this.skip = Math.max(0, fromIncl);
+        this.maxResults = Math.max(0, toExcl - skip);
+        if (filter == null)
+        {
+            // Results are a slice of the candidates, so no need to read any candidates to know the number of results
+            size = (int)Math.max(0, Math.min(candidates.size() - skip, maxResults));
+        }
+        else
+        {
+            resultPositions = new int[16];
+        }
+
+        final ExecutionContext ec = query.getExecutionContext();
+        ManagedConnectionResourceListener listener = new ManagedConnectionResourceListener()
+        {
+            public void transactionFlushed()
+            {
+            }
+
+            public void transactionPreClose()
+            {
+                disconnect();
+            }
+
+            public void managedConnectionPreClose()
+            {
+                if (!ec.getTransaction().isActive())
+                {
+                    disconnect();
+                }
+            }
+
+            public void managedConnectionPostClose()
+            {
+            }
+
+            public void resourcePostClose()
+            {
+                mconn.removeListener(this);
+            }
+        };
+        mconn.addListener(listener);
+        addConnectionListener(listener);
+    }
+
+    /**
+     * Convenience method to return whether the results of the query are just the candidates matching its filter, in
+     * candidate order, so can be read one at a time. This is the case for a SELECT with no ordering, grouping, result
+     * (other than the candidate), result class or subqueries.
+     * @param query The query
+     * @param compilation Compilation of the query
+     * @return Whether the results are the candidates matching the filter
+     */
+    public static boolean resultsAreCandidates(Query query, QueryCompilation compilation)
+    {
+        if (query.getType() != QueryType.SELECT || query.getResultClass() != null || query.getResultDistinct() ||
+            compilation.getExprOrdering() != null || compilation.getExprGrouping() != null || compilation.getExprHaving() != null ||
+            compilation.getSubqueryAliases() != null)
+        {
+            return false;
+        }
+
+        Expression[] resultExprs = compilation.getExprResult();
+        if (resultExprs == null)
+        {
+            return true;
+        }
+        if (resultExprs.length == 1 && resultExprs[0] instanceof PrimaryExpression && resultExprs[0].getLeft() == null)
+        {
+            // Result of just the candidate, as in JPQL "SELECT p FROM Product p"
+            List<String> tuples = ((PrimaryExpression)resultExprs[0]).getTuples();
+            return tuples.size() == 1 && tuples.get(0).equals(compilation.getCandidateAlias());
+        }
+        return false;
+    }
+
+    /**
+     * Convenience method to return the range of the query, taking the parameter value for any range parameter.
+     * @param query The query
+     * @param parameters Parameter values for the execution
+     * @return The range, as {fromIncl, toExcl}
+     */
+    public static long[] getRange(Query query, Map parameters)
+    {
+        long fromIncl = 0;
+        long toExcl = Long.MAX_VALUE;
+        if (query.getRange() != null)
+        {
+            fromIncl = query.getRangeFromIncl();
+            toExcl = query.getRangeToExcl();
+            if (query.getRangeFromInclParam() != null)
+            {
+                fromIncl = ((Number)parameters.get(query.getRangeFromInclParam())).longValue();
+            }
+            if (query.getRangeToExclParam() != null)
+            {
+                toExcl = ((Number)parameters.get(query.getRangeToExclParam())).longValue();
+            }
+        }
+        return new long[] {fromIncl, toExcl};
+    }
+
+    /**
+     * Method to read candidates until the result at the specified position is found, or there are no more results.
+     * @param index Position of the result
+     * @return Whether there is a result at this position
+     */
+    private boolean hasResult(int index)
+    {
+        if (loadedResults != null)
+        {
+            return index < loadedResults.size();
+        }
+        if (candidates == null)
+        {
+            throw new NucleusUserException("Results of the query were not loaded before its connection was closed." +
+                " Set \"datanucleus.query.loadResultsAtCommit\" if you want to access them after the connection is closed");
+        }
+        if (filter == null)
+        {
+            return index < size;
+        }
+
+        int numCandidates = candidates.size();
+        while (index >= numResults && numResults < maxResults && nextCandidate < numCandidates)
+        {
+            int position = nextCandidate++;
+            if (filter.test(candidates.get(position)))
+            {
+                if (numSkipped < skip)
+                {
+                    numSkipped++;
+                }
+                else
+                {
+                    if (numResults == resultPositions.length)
+                    {
+                        int[] positions = new int[numResults * 2];
+                        System.arraycopy(resultPositions, 0, positions, 0, numResults);
+                        resultPositions = positions;
+                    }
+                    resultPositions[numResults++] = position;
+                }
+            }
+        }
+        if (numResults >= maxResults || nextCandidate >= numCandidates)
+        {
+            // All results read
+            size = numResults;
+        }
+        return index < numResults;
+    }
+
+    /**
+     * Accessor for the result at the specified position, which must have been read (see hasResult).
+     * @param index Position of the result
+     * @return The result
+     */
+    private E getResult(int index)
+    {
+        if (loadedResults != null)
+        {
+            return loadedResults.get(index);
+        }
+        return candidates.get(filter == null ? (int)(skip + index) : resultPositions[index]);
+    }
+
+    /**
+     * Method to read all (remaining) results.
+     * @return All results
+     */
+    private List<E> readResults()
+    {
+        List<E> results = new ArrayList<>();
+        for (int i = 0; hasResult(i); i++)
+        {
+            results.add(getResult(i));
+        }
+        return results;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#closingConnection()
+     */
+    @Override
+    protected void closingConnection()
+    {
+        if (loadResultsAtCommit && isOpen() && loadedResults == null)
+        {
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug("Loading results of query " + query + " before the connection is closed");
+            }
+            loadedResults = readResults();
+            size = loadedResults.size();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#closeResults()
+     */
+    @Override
+    protected void closeResults()
+    {
+        candidates = null;
+        filter = null;
+        resultPositions = null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#get(int)
+     */
+    @Override
+    public synchronized E get(int index)
+    {
+        assertIsOpen();
+        if (index < 0 || !hasResult(index))
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of the range of the results");
+        }
+        return getResult(index);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#size()
+     */
+    @Override
+    public synchronized int size()
+    {
+        assertIsOpen();
+        if (size < 0)
+        {
+            hasResult(Integer.MAX_VALUE);
+        }
+        return size;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#isEmpty()
+     */
+    @Override
+    public synchronized boolean isEmpty()
+    {
+        assertIsOpen();
+        return !hasResult(0);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#iterator()
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        return new QueryResultIterator();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#listIterator()
+     */
+    @Override
+    public ListIterator<E> listIterator()
+    {
+        return new QueryResultIterator();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        return o == this;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.AbstractQueryResult#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * Handle serialisation by returning a java.util.ArrayList of all of the results for this query.
+     * @return The object to serialise
+     * @throws ObjectStreamException if an error occurs
+     */
+    protected synchronized Object writeReplace() throws ObjectStreamException
+    {
+        return (loadedResults != null) ? new ArrayList<>(loadedResults) : readResults();
+    }
+
+    /**
+     * Iterator for the results, reading the candidates as required.
+     */
+    private class QueryResultIterator extends AbstractQueryResultIterator<E>
+    {
+        /** Position of the next result. */
+        int nextIndex = 0;
+
+        @Override
+        public boolean hasNext()
+        {
+            synchronized (XMLQueryResult.this)
+            {
+                return isOpen() && hasResult(nextIndex);
+            }
+        }
+
+        @Override
+        public boolean hasPrevious()
+        {
+            synchronized (XMLQueryResult.this)
+            {
+                return isOpen() && nextIndex > 0;
+            }
+        }
+
+        @Override
+        public E next()
+        {
+            synchronized (XMLQueryResult.this)
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return getResult(nextIndex++);
+            }
+        }
+
+        @Override
+        public int nextIndex()
+        {
+            return nextIndex;
+        }
+
+        @Override
+        public E previous()
+        {
+            synchronized (XMLQueryResult.this)
+            {
+                if (!hasPrevious())
+                {
+                    throw new NoSuchElementException();
+                }
+                return getResult(--nextIndex);
+            }
+        }
+
+        @Override
+        public int previousIndex()
+        {
+            return nextIndex - 1;
+        }
+    }
+}
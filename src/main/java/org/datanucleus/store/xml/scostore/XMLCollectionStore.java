@@ -0,0 +1,340 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.scostore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.types.SCOContainer;
+import org.datanucleus.store.types.scostore.ListStore;
+import org.datanucleus.store.types.scostore.SetStore;
+import org.datanucleus.store.xml.XMLStoreManager;
+import org.datanucleus.store.xml.XMLUtils;
+import org.datanucleus.store.xml.fieldmanager.FetchFieldManager;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Backing store for a one-to-many collection field, allowing the collection to be lazy loaded.
+ * The collection is held in the element of the owner object as the ids of the related objects, so the size of the collection
+ * (and whether it contains an object with a single field primary key) comes from the ids alone, and the related objects are
+ * only found when iterating. They are found (and materialised) in batches of a configurable size, using one lookup per batch.
+ * <p>
+ * The collection is always written as part of the owner object, when the owner is updated, so this store only reads. The
+ * wrappers using this store are required to cache their elements, so every change is applied to a fully loaded cache, and
+ * the methods that would change the datastore do nothing (apart from {@link #clear(DNStateManager)}, which marks the cache
+ * of the collection as loaded, since the wrapper clears the collection without loading it).
+ * </p>
+ * <p>
+ * The same store is used for Set and List fields, since the ids are stored in the same way for both.
+ * </p>
+ * @param <E> Type of the elements
+ */
+@SuppressWarnings("rawtypes") // The SCO store methods being implemented take a raw DNStateManager (and Collection)
+public class XMLCollectionStore<E> implements SetStore<E>, ListStore<E>
+{
+    protected XMLStoreManager storeMgr;
+
+    protected AbstractMemberMetaData ownerMmd;
+
+    /** Number of related objects to find (and materialise) at once when iterating. */
+    protected int batchSize;
+
+    public XMLCollectionStore(XMLStoreManager storeMgr, AbstractMemberMetaData ownerMmd, int batchSize)
+    {
+        this.storeMgr = storeMgr;
+        this.ownerMmd = ownerMmd;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    @Override
+    public StoreManager getStoreManager()
+    {
+        return storeMgr;
+    }
+
+    @Override
+    public AbstractMemberMetaData getOwnerMemberMetaData()
+    {
+        return ownerMmd;
+    }
+
+    @Override
+    public boolean hasOrderMapping()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean updateEmbeddedElement(DNStateManager sm, E element, int fieldNumber, Object value)
+    {
+        return false;
+    }
+
+    /**
+     * Accessor for the ids of the related objects, from the element of the owner object.
+     * @param ownerSM StateManager of the owner
+     * @return The ids (empty if the owner is not present in the datastore)
+     */
+    protected String[] getElementIds(DNStateManager<?> ownerSM)
+    {
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ownerSM.getExecutionContext());
+        try
+        {
+            Node node = XMLUtils.findNode(mconn, ownerSM);
+            return (node != null ? FetchFieldManager.getElementIds((Element)node, ownerMmd) : new String[0]);
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Method to find the related objects with the specified ids.
+     * @param ownerSM StateManager of the owner
+     * @param ids Ids of the related objects
+     * @return The related objects
+     */
+    protected Object[] getElements(DNStateManager<?> ownerSM, String[] ids)
+    {
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ownerSM.getExecutionContext());
+        try
+        {
+            return FetchFieldManager.fetchRelatedObjects(ownerSM, ownerMmd, mconn, ids);
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator(DNStateManager ownerSM)
+    {
+        return new BatchIterator(ownerSM, getElementIds(ownerSM));
+    }
+
+    @Override
+    public ListIterator<E> listIterator(DNStateManager ownerSM)
+    {
+        return getElementList(ownerSM).listIterator();
+    }
+
+    @Override
+    public int size(DNStateManager ownerSM)
+    {
+        return getElementIds(ownerSM).length;
+    }
+
+    @Override
+    public boolean contains(DNStateManager ownerSM, Object element)
+    {
+        ExecutionContext ec = ownerSM.getExecutionContext();
+        if (!ec.getApiAdapter().isPersistable(element))
+        {
+            return false;
+        }
+        DNStateManager<?> elementSM = ec.findStateManager(element);
+        if (elementSM == null || !ec.getClassLoaderResolver().classForName(ownerMmd.getCollection().getElementType()).isInstance(element))
+        {
+            return false;
+        }
+        AbstractClassMetaData elementCmd = elementSM.getClassMetaData();
+        if (elementCmd.getIdentityType() != IdentityType.APPLICATION || elementCmd.getPKMemberPositions().length != 1)
+        {
+            // Only a single field primary key can be compared with the ids directly, so find the related objects
+            return getElementList(ownerSM).contains(element);
+        }
+        return Arrays.asList(getElementIds(ownerSM)).contains(XMLUtils.getKeyValues(elementSM)[0]);
+    }
+
+    @Override
+    public E get(DNStateManager ownerSM, int index)
+    {
+        String[] ids = getElementIds(ownerSM);
+        if (index < 0 || index >= ids.length)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of range for collection of size " + ids.length);
+        }
+        @SuppressWarnings("unchecked")
+        E element = (E)getElements(ownerSM, new String[] {ids[index]})[0];
+        return element;
+    }
+
+    @Override
+    public List<E> subList(DNStateManager ownerSM, int startIdx, int endIdx)
+    {
+        String[] ids = getElementIds(ownerSM);
+        @SuppressWarnings("unchecked")
+        List<E> elements = (List<E>)Arrays.asList(getElements(ownerSM, Arrays.copyOfRange(ids, startIdx, endIdx)));
+        return elements;
+    }
+
+    @Override
+    public int indexOf(DNStateManager ownerSM, Object element)
+    {
+        return getElementList(ownerSM).indexOf(element);
+    }
+
+    @Override
+    public int lastIndexOf(DNStateManager ownerSM, Object element)
+    {
+        return getElementList(ownerSM).lastIndexOf(element);
+    }
+
+    private List<E> getElementList(DNStateManager<?> ownerSM)
+    {
+        List<E> elements = new ArrayList<>();
+        iterator(ownerSM).forEachRemaining(elements::add);
+        return elements;
+    }
+
+    @Override
+    public boolean add(DNStateManager ownerSM, E element, int size)
+    {
+        return true;
+    }
+
+    @Override
+    public void add(DNStateManager ownerSM, E element, int index, int size)
+    {
+    }
+
+    @Override
+    public boolean addAll(DNStateManager ownerSM, Collection<? extends E> elements, int size)
+    {
+        return !elements.isEmpty();
+    }
+
+    @Override
+    public boolean addAll(DNStateManager ownerSM, Collection<? extends E> elements, int index, int size)
+    {
+        return !elements.isEmpty();
+    }
+
+    @Override
+    public boolean remove(DNStateManager ownerSM, Object element, int size, boolean allowDependentField)
+    {
+        return true;
+    }
+
+    @Override
+    public E remove(DNStateManager ownerSM, int index, int size)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean removeAll(DNStateManager ownerSM, Collection elements, int size)
+    {
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(DNStateManager ownerSM, Collection elements, int size, int[] elementIndices)
+    {
+        return true;
+    }
+
+    @Override
+    public E set(DNStateManager ownerSM, int index, E element, boolean allowDependentField)
+    {
+        return null;
+    }
+
+    @Override
+    public void update(DNStateManager ownerSM, Collection<? extends E> coll)
+    {
+    }
+
+    @Override
+    public void clear(DNStateManager ownerSM)
+    {
+        // The wrapper has cleared its cache without loading it, so mark it as loaded otherwise it would be reloaded from the
+        // (not yet updated) owner element
+        Object value = ownerSM.provideField(ownerMmd.getAbsoluteFieldNumber());
+        if (value instanceof SCOContainer && !((SCOContainer<?>)value).isLoaded())
+        {
+            initialise((SCOContainer<?>)value);
+        }
+    }
+
+    private static <T> void initialise(SCOContainer<T> container)
+    {
+        container.initialise(container.getValue());
+    }
+
+    /**
+     * Iterator over the related objects, finding them in batches as the iteration proceeds.
+     */
+    private class BatchIterator implements Iterator<E>
+    {
+        private final DNStateManager<?> ownerSM;
+
+        private final String[] ids;
+
+        private Object[] batch = new Object[0];
+
+        /** Index (in the ids) of the first object of the current batch. */
+        private int batchStart = 0;
+
+        private int nextIndex = 0;
+
+        BatchIterator(DNStateManager<?> ownerSM, String[] ids)
+        {
+            this.ownerSM = ownerSM;
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return nextIndex < ids.length;
+        }
+
+        @Override
+        public E next()
+        {
+            if (nextIndex >= ids.length)
+            {
+                throw new NoSuchElementException();
+            }
+            if (nextIndex >= batchStart + batch.length)
+            {
+                batchStart = nextIndex;
+                batch = getElements(ownerSM, Arrays.copyOfRange(ids, batchStart, Math.min(batchStart + batchSize, ids.length)));
+            }
+            @SuppressWarnings("unchecked")
+            E element = (E)batch[nextIndex++ - batchStart];
+            return element;
+        }
+    }
+}
@@ -19,12 +19,18 @@ package org.datanucleus.store.xml.valuegenerator;
 
 import java.util.Properties;
 
-import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathConstants;
 
+import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.valuegenerator.AbstractConnectedGenerator;
 import org.datanucleus.store.valuegenerator.ValueGenerationBlock;
 import org.datanucleus.store.valuegenerator.ValueGenerationException;
+import org.datanucleus.store.valuegenerator.ValueGenerator;
+import org.datanucleus.store.xml.ConnectionFactoryImpl.ManagedConnectionImpl;
+import org.datanucleus.store.xml.XMLUtils;
+import org.w3c.dom.Node;
 
 /**
  * Value generator for calling xpath generate-id().
@@ -53,8 +59,16 @@ public class GenerateIDGenerator extends AbstractConnectedGenerator<String>
         try
         {
             //TODO must provide the node, and not the root. otherwise the id is always generated with same value
-            Object doc = connectionProvider.retrieveConnection().getConnection();
-            String id = XPathFactory.newInstance().newXPath().evaluate("generate-id(.)", doc);
+            ManagedConnection mconn = connectionProvider.retrieveConnection();
+            Object doc = mconn.getConnection();
+            if (!(doc instanceof Node))
+            {
+                // Storing each class in its own file, so use the document of the class being generated for
+                AbstractClassMetaData cmd = storeMgr.getMetaDataManager().getMetaDataForClass(properties.getProperty(ValueGenerator.PROPERTY_CLASS_NAME),
+                    storeMgr.getNucleusContext().getClassLoaderResolver(null));
+                doc = ((ManagedConnectionImpl)mconn).getDocumentsForClass(cmd)[0];
+            }
+            String id = (String) XMLUtils.getXPathCache().evaluate("generate-id(.)", doc, XPathConstants.STRING);
             return new ValueGenerationBlock<String>(new String[]{id});
         }
         catch (Exception e)
@@ -0,0 +1,317 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jdo.JDOPersistenceManager;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.store.xml.ConnectionFactoryImpl.ManagedConnectionImpl;
+import org.datanucleus.store.xml.samples.Part;
+import org.datanucleus.store.xml.samples.Stock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests for {@link ConnectionFactoryImpl} storing the classes in a directory, and the routing of the objects of a partitioned
+ * class to the file for their partition.
+ */
+public class ConnectionFactoryImplTest
+{
+    private static final int NUM_PARTITIONS = 4;
+
+    private static final int NUM_PARTS = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File directory;
+
+    PersistenceManagerFactory pmf;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = folder.newFolder("data");
+        pmf = getPersistenceManagerFactory("xml:dir:" + directory.getAbsolutePath());
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = 0; i < NUM_PARTS; i++)
+            {
+                pm.makePersistent(new Part("p" + i, "part " + i));
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+    }
+
+    @Test
+    public void testObjectsStoredInTheirPartition() throws Exception
+    {
+        assertFalse(new File(directory, "catalogue_parts.xml").exists());
+        List<String> allIds = new ArrayList<>();
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+        {
+            List<String> ids = getIds(getPartitionFile(i));
+            assertFalse("Partition " + i + " should have some of the objects", ids.isEmpty());
+            for (String id : ids)
+            {
+                assertEquals("Partition of " + id, getPartition(id), i);
+            }
+            allIds.addAll(ids);
+        }
+        assertEquals(NUM_PARTS, allIds.size());
+        for (int i = 0; i < NUM_PARTS; i++)
+        {
+            assertTrue(allIds.contains("p" + i));
+        }
+    }
+
+    @Test
+    public void testDocumentsForObjectAndClass() throws Exception
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+            AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(Part.class, ec.getClassLoaderResolver());
+            ManagedConnectionImpl mconn = (ManagedConnectionImpl)ec.getStoreManager().getConnectionManager().getConnection(ec);
+            try
+            {
+                // Only the partition of the object is loaded
+                mconn.getDocumentForObject(cmd, new String[] {"p7"});
+                assertEquals(Collections.singletonList(getPartitionFile(getPartition("p7"))), new ArrayList<>(mconn.openFiles.keySet()));
+
+                // All partitions for the class
+                assertEquals(NUM_PARTITIONS, mconn.getDocumentsForClass(cmd).length);
+                assertEquals(NUM_PARTITIONS, mconn.openFiles.size());
+                for (int i = 0; i < NUM_PARTITIONS; i++)
+                {
+                    assertTrue(mconn.openFiles.containsKey(getPartitionFile(i)));
+                }
+            }
+            finally
+            {
+                mconn.release();
+            }
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testFindUpdateAndDeleteInPartition() throws Exception
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = 0; i < NUM_PARTS; i++)
+            {
+                assertEquals("part " + i, pm.getObjectById(Part.class, "p" + i).getName());
+            }
+            pm.getObjectById(Part.class, "p7").setName("changed");
+            pm.deletePersistent(pm.getObjectById(Part.class, "p8"));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        assertEquals(1, Collections.frequency(getIds(getPartitionFile(getPartition("p7"))), "p7"));
+        assertFalse(getIds(getPartitionFile(getPartition("p8"))).contains("p8"));
+        int numObjects = 0;
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+        {
+            numObjects += getIds(getPartitionFile(i)).size();
+        }
+        assertEquals(NUM_PARTS - 1, numObjects);
+
+        pmf.close();
+        pmf = getPersistenceManagerFactory("xml:dir:" + directory.getAbsolutePath());
+        pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals("changed", pm.getObjectById(Part.class, "p7").getName());
+            try
+            {
+                pm.getObjectById(Part.class, "p8");
+                throw new AssertionError("Deleted object should not be found");
+            }
+            catch (JDOObjectNotFoundException e)
+            {
+                // Expected
+            }
+            assertEquals(NUM_PARTS - 1, pm.newQuery(Part.class).executeList().size());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testClassesInOwnFiles() throws Exception
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.makePersistent(new Stock("s1", "tools", true, 1, 1, (short)0, 1.0, 1.0f, null));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        // Class without partitions in one file, named after its XPath
+        assertEquals(Arrays.asList("s1"), getIds(new File(directory, "stock_items.xml")));
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+        {
+            assertFalse(getIds(getPartitionFile(i)).contains("s1"));
+        }
+    }
+
+    @Test
+    public void testPartitionsIgnoredForSingleFile() throws Exception
+    {
+        File file = folder.newFile("single.xml");
+        PersistenceManagerFactory singlePmf = getPersistenceManagerFactory("xml:file:" + file.getAbsolutePath());
+        try
+        {
+            PersistenceManager pm = singlePmf.getPersistenceManager();
+            Transaction tx = pm.currentTransaction();
+            try
+            {
+                tx.begin();
+                for (int i = 0; i < 10; i++)
+                {
+                    pm.makePersistent(new Part("p" + i, "part " + i));
+                }
+                tx.commit();
+            }
+            finally
+            {
+                if (tx.isActive())
+                {
+                    tx.rollback();
+                }
+                pm.close();
+            }
+        }
+        finally
+        {
+            singlePmf.close();
+        }
+
+        assertEquals(10, getIds(file).size());
+        assertFalse(new File(folder.getRoot(), "single.0.xml").exists());
+    }
+
+    /**
+     * The partition of an object is the hash of its key values, modulo the number of partitions. This has to stay the same
+     * for existing files to remain readable.
+     */
+    private static int getPartition(String id)
+    {
+        return Math.floorMod(Arrays.hashCode(new String[] {id}), NUM_PARTITIONS);
+    }
+
+    private File getPartitionFile(int partition)
+    {
+        return new File(directory, "catalogue_parts." + partition + ".xml");
+    }
+
+    private static List<String> getIds(File file) throws Exception
+    {
+        List<String> ids = new ArrayList<>();
+        if (file.exists() && file.length() > 0)
+        {
+            NodeList idElements = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getElementsByTagName("id");
+            for (int i = 0; i < idElements.getLength(); i++)
+            {
+                ids.add(idElements.item(i).getTextContent());
+            }
+        }
+        return ids;
+    }
+
+    private static PersistenceManagerFactory getPersistenceManagerFactory(String url)
+    {
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", url);
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        return JDOHelper.getPersistenceManagerFactory(props);
+    }
+}
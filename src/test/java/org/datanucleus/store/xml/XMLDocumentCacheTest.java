@@ -0,0 +1,233 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests for {@link XMLDocumentCache}, checking when the cached document for a file is handed out, and when the file is parsed
+ * again.
+ */
+public class XMLDocumentCacheTest
+{
+    private static final long MODIFIED_TIME = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = folder.newFile("people.xml");
+        writeFile("<root><people><person><id>1</id><name>Alice</name></person></people></root>");
+    }
+
+    @Test
+    public void testCachedDocumentReused() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        assertEquals("Alice", getName(doc));
+        cache.checkIn(file, null, doc, false);
+
+        assertSame(doc, cache.checkOut(file, null));
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(false, false);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+
+        assertNotSame(doc, cache.checkOut(file, null));
+    }
+
+    @Test
+    public void testCheckedOutDocumentNotShared() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        Document otherDoc = cache.checkOut(file, null);
+        assertNotSame(doc, otherDoc);
+        assertEquals("Alice", getName(otherDoc));
+
+        // Check in of the other (unwritten) document neither replaces nor releases the cached one
+        cache.checkIn(file, null, otherDoc, false);
+        Document thirdDoc = cache.checkOut(file, null);
+        assertNotSame(doc, thirdDoc);
+        assertNotSame(otherDoc, thirdDoc);
+        cache.checkIn(file, null, thirdDoc, false);
+
+        cache.checkIn(file, null, doc, false);
+        assertSame(doc, cache.checkOut(file, null));
+    }
+
+    @Test
+    public void testParsedAgainWhenModifiedTimeChanges() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+
+        assertTrue(file.setLastModified(MODIFIED_TIME + 2000));
+        assertNotSame(doc, cache.checkOut(file, null));
+    }
+
+    @Test
+    public void testParsedAgainWhenSizeChanges() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+
+        // Same modified time, different size
+        writeFile("<root><people><person><id>1</id><name>Alexandra</name></person></people></root>");
+        Document newDoc = cache.checkOut(file, null);
+        assertNotSame(doc, newDoc);
+        assertEquals("Alexandra", getName(newDoc));
+    }
+
+    @Test
+    public void testParsedAgainWhenChecksumChanges() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, true);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+
+        // Same modified time and size, different contents
+        writeFile("<root><people><person><id>1</id><name>Alina</name></person></people></root>");
+        Document newDoc = cache.checkOut(file, null);
+        assertNotSame(doc, newDoc);
+        assertEquals("Alina", getName(newDoc));
+    }
+
+    @Test
+    public void testSameModifiedTimeAndSizeNotDetectedWithoutChecksum() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+
+        writeFile("<root><people><person><id>1</id><name>Alina</name></person></people></root>");
+        assertSame(doc, cache.checkOut(file, null));
+    }
+
+    @Test
+    public void testParsedAgainWhenJournalChanges() throws Exception
+    {
+        XMLJournal journal = new XMLJournal(file, Long.MAX_VALUE);
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, journal);
+        cache.checkIn(file, journal, doc, false);
+
+        // Another process appends a change to the journal, leaving the file unchanged
+        Document otherDoc = cache.parse(file, journal);
+        Element name = (Element)otherDoc.getElementsByTagName("name").item(0);
+        name.setTextContent("Ali");
+        journal.append(Collections.singletonList(XMLJournal.Record.newUpdate((Element)name.getParentNode(), new String[] {"id"})));
+
+        Document newDoc = cache.checkOut(file, journal);
+        assertNotSame(doc, newDoc);
+        assertEquals("Ali", getName(newDoc));
+        cache.checkIn(file, journal, newDoc, false);
+        assertSame(newDoc, cache.checkOut(file, journal));
+    }
+
+    @Test
+    public void testWrittenDocumentCached() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, true);
+        Document doc = cache.checkOut(file, null);
+        Document otherDoc = cache.checkOut(file, null);
+
+        // The other document is changed and written, so replaces the cached document (even though it is checked out)
+        otherDoc.getElementsByTagName("name").item(0).setTextContent("Bob");
+        new XMLDocumentWriter(0).write(otherDoc, file);
+        cache.checkIn(file, null, otherDoc, true);
+
+        // Check in of the stale document doesn't make it the cached document again
+        cache.checkIn(file, null, doc, false);
+        Document newDoc = cache.checkOut(file, null);
+        assertSame(otherDoc, newDoc);
+        assertEquals("Bob", getName(newDoc));
+    }
+
+    @Test
+    public void testWrittenJournalledDocumentCached() throws Exception
+    {
+        XMLJournal journal = new XMLJournal(file, Long.MAX_VALUE);
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, journal);
+
+        Element name = (Element)doc.getElementsByTagName("name").item(0);
+        name.setTextContent("Bob");
+        journal.append(Collections.singletonList(XMLJournal.Record.newUpdate((Element)name.getParentNode(), new String[] {"id"})));
+        cache.checkIn(file, journal, doc, true);
+
+        // Stamped with the journal as written, so not parsed again
+        assertSame(doc, cache.checkOut(file, journal));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        XMLDocumentCache cache = new XMLDocumentCache(true, false);
+        Document doc = cache.checkOut(file, null);
+        cache.checkIn(file, null, doc, false);
+        cache.invalidate(file);
+        Document newDoc = cache.checkOut(file, null);
+        assertNotSame(doc, newDoc);
+
+        // A document checked in after its entry was invalidated (e.g after a failed write) isn't cached again
+        cache.invalidate(file);
+        cache.checkIn(file, null, newDoc, false);
+        assertNotSame(newDoc, cache.checkOut(file, null));
+    }
+
+    /**
+     * Method to replace the contents of the XML file, keeping the same modified time.
+     */
+    private void writeFile(String xml) throws Exception
+    {
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(MODIFIED_TIME));
+    }
+
+    private static String getName(Document doc)
+    {
+        return doc.getElementsByTagName("name").item(0).getTextContent();
+    }
+}
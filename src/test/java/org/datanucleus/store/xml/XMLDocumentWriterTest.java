@@ -0,0 +1,85 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests for {@link XMLDocumentWriter}, checking that the text and attribute values of a written document are read back unchanged.
+ */
+public class XMLDocumentWriterTest
+{
+    private static final String TEXT = "a\r\nb\rc\nd\te & <f> \"g\" 'h' ]]> é😀";
+
+    private static final String ATTRIBUTE = "line1\nline2\ttab\rreturn\r\n & <f> \"g\" 'h'";
+
+    @Test
+    public void testRoundTripWithoutIndent() throws Exception
+    {
+        checkRoundTrip(0);
+    }
+
+    @Test
+    public void testRoundTripWithIndent() throws Exception
+    {
+        checkRoundTrip(4);
+    }
+
+    private void checkRoundTrip(int indent) throws Exception
+    {
+        Document doc = newDocument();
+        Element root = doc.createElement("root");
+        doc.appendChild(root);
+        Element people = doc.createElement("people");
+        root.appendChild(people);
+        Element person = doc.createElement("person");
+        person.setAttribute("note", ATTRIBUTE);
+        people.appendChild(person);
+        Element name = doc.createElement("name");
+        name.setTextContent(TEXT);
+        person.appendChild(name);
+        Element empty = doc.createElement("empty");
+        empty.setAttribute("blank", "");
+        person.appendChild(empty);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new XMLDocumentWriter(indent).write(doc, bytes);
+
+        Document readDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(bytes.toByteArray()));
+        Element readPerson = (Element)readDoc.getElementsByTagName("person").item(0);
+        assertEquals(ATTRIBUTE, readPerson.getAttribute("note"));
+        assertEquals(TEXT, readDoc.getElementsByTagName("name").item(0).getTextContent());
+        Element readEmpty = (Element)readDoc.getElementsByTagName("empty").item(0);
+        assertEquals("", readEmpty.getAttribute("blank"));
+        assertEquals("", readEmpty.getTextContent());
+    }
+
+    static Document newDocument() throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+}
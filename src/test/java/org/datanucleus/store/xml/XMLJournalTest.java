@@ -0,0 +1,357 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.datanucleus.store.xml.samples.Stock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Tests for {@link XMLJournal}, appending commits to a journal and replaying them onto a document.
+ */
+public class XMLJournalTest
+{
+    private static final String[] KEY_NAMES = {"id"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendReplayRoundTrip() throws Exception
+    {
+        String text = "a\r\nb\rc\td & <e> \"f\"";
+        String attribute = "line1\nline2\ttab\rreturn & <e> \"f\"";
+
+        XMLJournal journal = new XMLJournal(folder.newFile("people.xml"), Long.MAX_VALUE);
+        Document doc = newDocument();
+        Element person = addPerson(doc, "1", text);
+        person.setAttribute("note", attribute);
+        journal.append(Collections.singletonList(XMLJournal.Record.newInsert(person, KEY_NAMES)));
+
+        Document replayed = newDocument();
+        journal.replay(replayed);
+        Element replayedPerson = getPerson(replayed, "1");
+        assertEquals(text, getName(replayedPerson));
+        assertEquals(attribute, replayedPerson.getAttribute("note"));
+        assertEquals(1, replayedPerson.getElementsByTagName("name").item(0).getChildNodes().getLength());
+    }
+
+    @Test
+    public void testReplayCompleteCommits() throws Exception
+    {
+        File file = writeBaseFile();
+        XMLJournal journal = new XMLJournal(file, Long.MAX_VALUE);
+        appendChanges(journal);
+
+        Document doc = parse(file);
+        journal.replay(doc);
+        checkChangesApplied(doc);
+    }
+
+    @Test
+    public void testReplayIgnoresTornTrailingCommit() throws Exception
+    {
+        File file = writeBaseFile();
+        XMLJournal journal = new XMLJournal(file, Long.MAX_VALUE);
+        Document doc = parse(file);
+        journal.append(Arrays.asList(XMLJournal.Record.newInsert(addPerson(doc, "4", "David"), KEY_NAMES),
+            XMLJournal.Record.newUpdate(setName(getPerson(doc, "2"), "Bobby"), KEY_NAMES)));
+        long firstCommitLength = journal.getFile().length();
+        journal.append(Arrays.asList(XMLJournal.Record.newDelete(getPerson(doc, "1"), KEY_NAMES),
+            XMLJournal.Record.newInsert(addPerson(doc, "5", "Eve"), KEY_NAMES)));
+        long secondCommitLength = journal.getFile().length() - firstCommitLength;
+
+        // Cut the second commit short (as if the process died while appending it), both within a record and between records
+        for (long tornLength : new long[] {secondCommitLength / 2, secondCommitLength - 1})
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(journal.getFile(), "rw"))
+            {
+                raf.setLength(firstCommitLength + tornLength);
+            }
+
+            Document replayed = parse(file);
+            journal.replay(replayed);
+            assertEquals(Arrays.asList("1", "2", "3", "4"), getIds(replayed));
+            assertEquals("Bobby", getName(getPerson(replayed, "2")));
+        }
+    }
+
+    @Test
+    public void testReplayAfterCompactionIsIdempotent() throws Exception
+    {
+        File file = writeBaseFile();
+        XMLJournal journal = new XMLJournal(file, Long.MAX_VALUE);
+        appendChanges(journal);
+
+        // Compact the file, but leave the journal in place (as if the process died before it was deleted)
+        Document doc = parse(file);
+        journal.replay(doc);
+        new XMLDocumentWriter(4).write(doc, file);
+        String compacted = serialise(doc);
+
+        Document replayed = parse(file);
+        journal.replay(replayed);
+        checkChangesApplied(replayed);
+        assertEquals(compacted, serialise(replayed));
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        File file = new File(folder.getRoot(), "stock.xml");
+        File journalFile = new File(file.getPath() + XMLJournal.JOURNAL_SUFFIX);
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "xml:file:" + file.getAbsolutePath());
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        props.setProperty("datanucleus.xml.journal", "true");
+        props.setProperty("datanucleus.xml.journal.compactionThreshold", "4096");
+        PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(props);
+        try
+        {
+            // A small commit is only appended to the journal
+            persistStock(pmf, 0, 1);
+            assertTrue(journalFile.exists());
+            assertEquals(0, getNumberOfObjects(file));
+
+            // A commit taking the journal over the threshold rewrites the file (replacing any temporary file left by a failed
+            // compaction), and removes the journal
+            Files.write(tmpFile.toPath(), "<stock>".getBytes(StandardCharsets.UTF_8));
+            persistStock(pmf, 1, 30);
+            assertFalse(journalFile.exists());
+            assertFalse(tmpFile.exists());
+            assertEquals(30, getNumberOfObjects(file));
+
+            // Further commits are journalled onto the compacted file
+            persistStock(pmf, 30, 31);
+            assertTrue(journalFile.exists());
+            assertEquals(30, getNumberOfObjects(file));
+        }
+        finally
+        {
+            pmf.close();
+        }
+
+        pmf = JDOHelper.getPersistenceManagerFactory(props);
+        try
+        {
+            PersistenceManager pm = pmf.getPersistenceManager();
+            try
+            {
+                assertEquals(31, pm.newQuery(Stock.class).executeResultList(Stock.class).size());
+                assertNotNull(pm.getObjectById(Stock.class, "s30"));
+            }
+            finally
+            {
+                pm.close();
+            }
+        }
+        finally
+        {
+            pmf.close();
+        }
+    }
+
+    private static int getNumberOfObjects(File file) throws Exception
+    {
+        return (file.length() == 0) ? 0 : parse(file).getElementsByTagName("id").getLength();
+    }
+
+    private static void persistStock(PersistenceManagerFactory pmf, int from, int to)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = from; i < to; i++)
+            {
+                pm.makePersistent(new Stock("s" + i, "tools", true, i, i, (short)0, 0.5 * i, 0.0f, null));
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Method to write an XML file with people "1" (Alice), "2" (Bob) and "3" (Carol).
+     */
+    private File writeBaseFile() throws Exception
+    {
+        Document doc = newDocument();
+        addPerson(doc, "1", "Alice");
+        addPerson(doc, "2", "Bob");
+        addPerson(doc, "3", "Carol");
+        File file = folder.newFile("people.xml");
+        new XMLDocumentWriter(4).write(doc, file);
+        return file;
+    }
+
+    /**
+     * Method to append two commits to the journal of the base file, changing it to people "2" (Bobby), "3" (Carol), "4" (Dan)
+     * and "5" (Eve).
+     */
+    private static void appendChanges(XMLJournal journal) throws Exception
+    {
+        Document doc = parse(new File(journal.getFile().getPath().replace(XMLJournal.JOURNAL_SUFFIX, "")));
+        journal.append(Arrays.asList(XMLJournal.Record.newInsert(addPerson(doc, "4", "David"), KEY_NAMES),
+            XMLJournal.Record.newUpdate(setName(getPerson(doc, "2"), "Bobby"), KEY_NAMES),
+            XMLJournal.Record.newDelete(getPerson(doc, "1"), KEY_NAMES)));
+        getPerson(doc, "1").getParentNode().removeChild(getPerson(doc, "1"));
+
+        Element missing = addPerson(doc, "9", "Nobody");
+        XMLJournal.Record deleteMissing = XMLJournal.Record.newDelete(missing, KEY_NAMES);
+        missing.getParentNode().removeChild(missing);
+        journal.append(Arrays.asList(XMLJournal.Record.newUpdate(setName(getPerson(doc, "4"), "Dan"), KEY_NAMES),
+            XMLJournal.Record.newInsert(addPerson(doc, "5", "Eve"), KEY_NAMES), deleteMissing));
+    }
+
+    private static void checkChangesApplied(Document doc)
+    {
+        assertEquals(Arrays.asList("2", "3", "4", "5"), getIds(doc));
+        assertEquals("Bobby", getName(getPerson(doc, "2")));
+        assertEquals("Carol", getName(getPerson(doc, "3")));
+        assertEquals("Dan", getName(getPerson(doc, "4")));
+        assertEquals("Eve", getName(getPerson(doc, "5")));
+    }
+
+    private static Document parse(File file) throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    private static String serialise(Document doc) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new XMLDocumentWriter(4).write(doc, bytes);
+        return bytes.toString("UTF-8");
+    }
+
+    private static Document newDocument() throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+
+    /**
+     * Method to add a person element to the "/root/people" container of the document, creating the container if needed.
+     */
+    private static Element addPerson(Document doc, String id, String name)
+    {
+        Element root = doc.getDocumentElement();
+        if (root == null)
+        {
+            root = doc.createElement("root");
+            doc.appendChild(root);
+            root.appendChild(doc.createElement("people"));
+        }
+        Element person = doc.createElement("person");
+        Element idElement = doc.createElement("id");
+        idElement.setTextContent(id);
+        person.appendChild(idElement);
+        Element nameElement = doc.createElement("name");
+        nameElement.setTextContent(name);
+        person.appendChild(nameElement);
+        root.getElementsByTagName("people").item(0).appendChild(person);
+        return person;
+    }
+
+    private static Element setName(Element person, String name)
+    {
+        person.getElementsByTagName("name").item(0).setTextContent(name);
+        return person;
+    }
+
+    private static List<String> getIds(Document doc)
+    {
+        List<String> ids = new ArrayList<>();
+        for (Element person : getPeople(doc))
+        {
+            ids.add(XMLUtils.getKeyValue(person, "id"));
+        }
+        return ids;
+    }
+
+    private static Element getPerson(Document doc, String id)
+    {
+        for (Element person : getPeople(doc))
+        {
+            if (id.equals(XMLUtils.getKeyValue(person, "id")))
+            {
+                return person;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> getPeople(Document doc)
+    {
+        List<Element> people = new ArrayList<>();
+        if (doc.getDocumentElement() != null)
+        {
+            Node container = doc.getDocumentElement().getElementsByTagName("people").item(0);
+            for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child instanceof Element)
+                {
+                    people.add((Element)child);
+                }
+            }
+        }
+        return people;
+    }
+
+    private static String getName(Element person)
+    {
+        return XMLUtils.getKeyValue(person, "name");
+    }
+}
@@ -0,0 +1,199 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.FetchGroup;
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.datanucleus.api.jdo.DataNucleusHelperJDO;
+import org.datanucleus.store.xml.samples.Item;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests for the update of objects by {@link XMLPersistenceHandler}.
+ */
+public class XMLPersistenceHandlerTest
+{
+    private static final List<String> IDS = Arrays.asList("i0", "i1", "i2", "i3", "i4");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+
+    PersistenceManagerFactory pmf;
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+    }
+
+    /**
+     * With the field codec the updated fields are changed in the existing element, so the element keeps its position and the
+     * unloaded fields are neither loaded nor rewritten.
+     */
+    @Test
+    public void testUpdateInPlaceWithFieldCodec() throws Exception
+    {
+        createPersistenceManagerFactory(true);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.getFetchPlan().setGroup("quantityOnly");
+            Item item = pm.getObjectById(Item.class, "i2");
+            assertFalse(DataNucleusHelperJDO.isFieldLoaded(item, "name", pm));
+            item.setQuantity(99);
+            pm.flush();
+            assertFalse("Unloaded field should not be loaded by the update", DataNucleusHelperJDO.isFieldLoaded(item, "name", pm));
+            assertFalse(DataNucleusHelperJDO.isFieldLoaded(item, "description", pm));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        assertEquals("Updated element should keep its position", IDS, getIds(doc));
+        Element element = (Element)doc.getElementsByTagName("item").item(2);
+        assertEquals("99", getChildText(element, "quantity"));
+        assertEquals("item 2", getChildText(element, "name"));
+        assertEquals("description of item 2", getChildText(element, "description"));
+        assertEquals("3", getChildText(element, "rating"));
+    }
+
+    /**
+     * With the JAXB handler the element is replaced by one marshalled from the (fully loaded) object, so is moved to the end.
+     */
+    @Test
+    public void testUpdateWithJAXB() throws Exception
+    {
+        createPersistenceManagerFactory(false);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.getFetchPlan().setGroup("quantityOnly");
+            Item item = pm.getObjectById(Item.class, "i2");
+            item.setQuantity(99);
+            pm.flush();
+            assertTrue(DataNucleusHelperJDO.isFieldLoaded(item, "name", pm));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        assertEquals(Arrays.asList("i0", "i1", "i3", "i4", "i2"), getIds(doc));
+        Element element = (Element)doc.getElementsByTagName("item").item(4);
+        assertEquals("99", getChildText(element, "quantity"));
+        assertEquals("item 2", getChildText(element, "name"));
+        assertEquals("description of item 2", getChildText(element, "description"));
+    }
+
+    private void createPersistenceManagerFactory(boolean fieldCodec) throws Exception
+    {
+        file = folder.newFile("items.xml");
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "xml:file:" + file.getAbsolutePath());
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        props.setProperty("datanucleus.xml.fieldCodec", String.valueOf(fieldCodec));
+        pmf = JDOHelper.getPersistenceManagerFactory(props);
+
+        FetchGroup group = pmf.getFetchGroup(Item.class, "quantityOnly");
+        group.addMember("quantity");
+        pmf.addFetchGroups(group);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = 0; i < IDS.size(); i++)
+            {
+                pm.makePersistent(new Item(IDS.get(i), "item " + i, "description of item " + i, i, i, (short)i, i, true, null,
+                    i + 1, Item.Status.ACTIVE));
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    private static List<String> getIds(Document doc)
+    {
+        List<String> ids = new ArrayList<>();
+        NodeList idElements = doc.getElementsByTagName("id");
+        for (int i = 0; i < idElements.getLength(); i++)
+        {
+            ids.add(idElements.item(i).getTextContent());
+        }
+        return ids;
+    }
+
+    private static String getChildText(Element element, String name)
+    {
+        return element.getElementsByTagName(name).item(0).getTextContent();
+    }
+}
@@ -0,0 +1,360 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jdo.JDOQuery;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.xml.samples.Item;
+import org.datanucleus.store.xml.samples.Item.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link QueryToXPathMapper}, checking that the candidates selected by the predicate for a filter are the same
+ * objects as the in-memory evaluation of the filter selects (when the filter is fully applied by the predicate), or a superset of
+ * them (when only part of the filter is applied), and that the query results are the same as those of the in-memory evaluation.
+ */
+public class QueryToXPathMapperTest
+{
+    private static final String JPQL = "javax.jdo.query.JPQL";
+
+    private static final String[] NAMES = {"alpha", "beta", "gamma", "alphabet", "delta"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    PersistenceManagerFactory pmf;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "xml:file:" + folder.newFile("items.xml").getAbsolutePath());
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        pmf = JDOHelper.getPersistenceManagerFactory(props);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = 0; i < 42; i++)
+            {
+                // Each of description, featured, rating and status is null (so absent from the XML) for some items
+                pm.makePersistent(new Item("i" + i, NAMES[i % NAMES.length], (i % 4 == 0) ? null : "desc" + i + (i % 3 == 0 ? " end" : ""),
+                    i % 10, 10000000000L * (i % 4), (short)(i % 3), 0.5 * i, i % 2 == 0, (i % 3 == 0) ? null : (i % 3 == 1),
+                    (i % 5 == 0) ? null : i % 5, (i % 7 == 0) ? null : Status.values()[i % 3]));
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+    }
+
+    @Test
+    public void testNullComparisons()
+    {
+        checkExact("description == null");
+        checkExact("description != null");
+        checkExact("rating == null");
+        checkExact("rating != null");
+        checkExact("null == rating");
+        checkExact("featured == null");
+        checkExact("status != null");
+        checkExact("rating == :value", params("value", null));
+    }
+
+    @Test
+    public void testIntegerWrapperComparisons()
+    {
+        checkExact("rating == 3");
+        checkExact("rating != 3");
+        checkExact("3 != rating");
+        checkExact("rating != :value", params("value", 2));
+
+        // Null is ordered before all values in-memory, so an ordering of a wrapper is only partly applied from the XML
+        checkParity("rating < 3");
+        checkParity("rating >= 3");
+        checkParity("3 > rating");
+        checkParity("rating < 0");
+        checkParity("rating > -5");
+        checkParity("rating <= :value", params("value", 2));
+        checkParity("!(rating < 3)");
+    }
+
+    @Test
+    public void testPrimitiveComparisons()
+    {
+        checkExact("quantity == 4");
+        checkExact("quantity != 4");
+        checkExact("quantity < 4");
+        checkExact("quantity >= :value", params("value", 7));
+        checkExact("size == 1");
+        checkExact("size < 2");
+        checkExact("code == 20000000000");
+        checkExact("code != 0");
+        checkParity("code > 10000000000");
+        checkParity("price < 5.0");
+    }
+
+    @Test
+    public void testNegation()
+    {
+        checkExact("!(quantity > 5)");
+        checkExact("!(rating == 3)");
+        checkExact("!(rating != 3)");
+        checkExact("!(rating != null)");
+        checkExact("!(description == null)");
+        checkExact("!name.startsWith(\"alpha\")");
+        checkExact("!description.startsWith(\"desc1\")");
+        checkExact("!description.endsWith(\"end\")");
+        checkExact("!(featured == true)");
+        checkExact("!(status == :value)", params("value", Status.ACTIVE));
+        checkParity("!(quantity > 2 && price < 5.0)");
+        checkParity("!(price < 5.0)");
+    }
+
+    @Test
+    public void testAndOrWithPartialConversion()
+    {
+        checkExact("quantity > 2 && rating != 1");
+        checkExact("quantity > 8 || rating == 1");
+        checkParity("quantity > 2 && price < 5.0");
+        checkParity("price < 5.0 && rating == null");
+        checkParity("quantity > 8 || price < 1.0");
+        checkParity("(quantity > 2 && price < 5.0) || rating == 1");
+        checkParity("(quantity > 2 || price < 5.0) && active");
+        checkParity("(rating == null || price < 5.0) && !(description == null)");
+    }
+
+    @Test
+    public void testEnums()
+    {
+        checkExact("status == :value", params("value", Status.ACTIVE));
+        checkExact("status != :value", params("value", Status.RETIRED));
+        checkExact("status == null || status == :value", params("value", Status.SUSPENDED));
+        checkParity("status == org.datanucleus.store.xml.samples.Item.Status.RETIRED");
+    }
+
+    @Test
+    public void testBooleans()
+    {
+        checkExact("active");
+        checkExact("!active");
+        checkExact("active == true");
+        checkExact("active == false");
+        checkExact("true == active");
+        checkExact("active != false");
+        checkExact("featured");
+        checkExact("featured == true");
+        checkExact("featured == false");
+        checkExact("featured != true");
+        checkExact("featured == :value", params("value", Boolean.FALSE));
+    }
+
+    @Test
+    public void testStringMethods()
+    {
+        checkExact("name.startsWith(\"alpha\")");
+        checkExact("name.endsWith(\"a\")");
+        checkExact("name.equals(\"beta\")");
+        checkExact("name == \"gamma\"");
+        checkExact("name != \"gamma\"");
+        checkExact("\"gamma\" == name");
+        checkExact("description.startsWith(\"desc1\")");
+        checkExact("description.endsWith(\"end\")");
+        checkExact("name.startsWith(:value)", params("value", "alpha"));
+        checkExact("description.endsWith(\"end\") && name.startsWith(\"alpha\")");
+        checkParity("name.toUpperCase() == \"BETA\"");
+        checkParity("name.indexOf(\"ph\") >= 0");
+    }
+
+    @Test
+    public void testJPQL()
+    {
+        checkExact(JPQL, "i.rating IS NULL", null);
+        checkExact(JPQL, "i.description IS NOT NULL", null);
+        checkExact(JPQL, "i.rating <> 3", null);
+        checkExact(JPQL, "NOT (i.quantity > 5)", null);
+        checkExact(JPQL, "i.active = true", null);
+        checkExact(JPQL, "i.featured <> true", null);
+        checkExact(JPQL, "i.status = :value", params("value", Status.SUSPENDED));
+        checkExact(JPQL, "i.quantity > 8 OR i.rating = 1", null);
+        checkParity(JPQL, "i.name LIKE 'alpha%'", null);
+        checkParity(JPQL, "i.quantity > 2 AND i.price < 5.0", null);
+        checkParity(JPQL, "i.quantity > 8 OR i.price < 1.0", null);
+        checkParity(JPQL, "NOT (i.quantity > 2 AND i.price < 5.0)", null);
+    }
+
+    private static Map<String, Object> params(String name, Object value)
+    {
+        return Collections.singletonMap(name, value);
+    }
+
+    private void checkExact(String filter)
+    {
+        checkExact(filter, null);
+    }
+
+    private void checkExact(String filter, Map<String, Object> params)
+    {
+        checkExact(Query.JDOQL, filter, params);
+    }
+
+    private void checkExact(String language, String filter, Map<String, Object> params)
+    {
+        assertTrue("Filter should be fully applied from the XML : " + filter, checkParity(language, filter, params));
+    }
+
+    private void checkParity(String filter)
+    {
+        checkParity(Query.JDOQL, filter, null);
+    }
+
+    private void checkParity(String filter, Map<String, Object> params)
+    {
+        checkParity(Query.JDOQL, filter, params);
+    }
+
+    /**
+     * Check that the candidates selected using the filter are the same objects as selected by the in-memory evaluation of the
+     * filter (or a superset of them where the filter is not fully applied), and that the query results are the same.
+     * @param language The query language
+     * @param filter The filter
+     * @param params Values of the parameters (if any)
+     * @return Whether the filter is fully applied by the predicate
+     */
+    private boolean checkParity(String language, String filter, Map<String, Object> params)
+    {
+        String queryString = Query.JDOQL.equals(language) ? "SELECT FROM " + Item.class.getName() + " WHERE " + filter :
+            "SELECT i FROM " + Item.class.getName() + " i WHERE " + filter;
+        Map<String, Object> parameters = (params != null ? params : new HashMap<>());
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            // The same query with the candidates supplied is evaluated in-memory
+            Query inMemoryQuery = pm.newQuery(language, queryString);
+            List<Object> allItems = new ArrayList<>();
+            for (Object obj : pm.getExtent(Item.class, true))
+            {
+                allItems.add(obj);
+            }
+            inMemoryQuery.setCandidates(allItems);
+            TreeSet<String> inMemoryIds = getIds((Collection<?>)inMemoryQuery.executeWithMap(parameters));
+
+            TreeSet<String> candidateIds = new TreeSet<>();
+            boolean exact = selectCandidatesFromXML(pm.newQuery(language, queryString), parameters, candidateIds);
+            if (exact)
+            {
+                assertEquals("Candidates selected from the XML for " + queryString, inMemoryIds, candidateIds);
+            }
+            else
+            {
+                assertTrue("Candidates selected from the XML for " + queryString + " should include " + inMemoryIds + " but were " +
+                    candidateIds, candidateIds.containsAll(inMemoryIds));
+            }
+
+            Query query = pm.newQuery(language, queryString);
+            assertEquals("Results of " + queryString, inMemoryIds, getIds((Collection<?>)query.executeWithMap(parameters)));
+            return exact;
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Method to select the candidates of the query using its filter, in the same way as the query execution does.
+     * @param query The query
+     * @param parameters Values of the parameters
+     * @param ids Set to add the ids of the candidates to
+     * @return Whether the filter is fully applied in selecting the candidates
+     */
+    private static boolean selectCandidatesFromXML(Query query, Map<String, Object> parameters, TreeSet<String> ids)
+    {
+        org.datanucleus.store.query.Query internalQuery = ((JDOQuery)query).getInternalQuery();
+        internalQuery.compile();
+        ExecutionContext ec = internalQuery.getExecutionContext();
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        ManagedConnection mconn = ec.getStoreManager().getConnectionManager().getConnection(ec);
+        try
+        {
+            QueryCompilation compilation = internalQuery.getCompilation();
+            XMLCandidateList candidates = new XMLCandidateList(compilation.getCandidateClass(), internalQuery.isSubclasses(), ec, null,
+                mconn, internalQuery.getIgnoreCache(), new QueryToXPathMapper(compilation, parameters, clr));
+            ids.addAll(getIds(candidates));
+            return candidates.isFilterComplete();
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    private static TreeSet<String> getIds(Collection<?> items)
+    {
+        TreeSet<String> ids = new TreeSet<>();
+        for (Object item : items)
+        {
+            ids.add(((Item)item).getId());
+        }
+        return ids;
+    }
+}
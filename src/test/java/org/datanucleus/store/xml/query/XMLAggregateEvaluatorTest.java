@@ -0,0 +1,250 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jdo.JDOQuery;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.xml.samples.SpecialStock;
+import org.datanucleus.store.xml.samples.Stock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link XMLAggregateEvaluator}, checking that the results evaluated from the XML have the same rows, values, types
+ * and group order as the in-memory evaluation of the same query.
+ */
+public class XMLAggregateEvaluatorTest
+{
+    private static final String JPQL = "javax.jdo.query.JPQL";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    PersistenceManagerFactory pmf;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "xml:file:" + folder.newFile("stock.xml").getAbsolutePath());
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        pmf = JDOHelper.getPersistenceManagerFactory(props);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            String[] categories = {"tools", "garden", "kitchen"};
+            for (int i = 0; i < 40; i++)
+            {
+                // Prices and weights are multiples of 0.25 so that sums are exact whatever the order of addition
+                Stock stock = (i % 5 == 4) ?
+                    new SpecialStock("s" + i, categories[i % 3], i % 2 == 0, i % 7, 1000000000000L * i, (short)(i % 4),
+                        0.25 * i, 0.5f * (i % 6), (i % 3 == 0) ? i : null, "offer" + i) :
+                    new Stock("s" + i, categories[i % 3], i % 2 == 0, i % 7, 1000000000000L * i, (short)(i % 4),
+                        0.25 * i, 0.5f * (i % 6), (i % 3 == 0) ? i : null);
+                pm.makePersistent(stock);
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+    }
+
+    @Test
+    public void testJDOQLAggregates()
+    {
+        checkAggregates(Query.JDOQL, "SELECT count(this) FROM " + Stock.class.getName());
+        checkAggregates(Query.JDOQL, "SELECT count(this), sum(quantity), min(quantity), max(quantity), avg(quantity) FROM " +
+            Stock.class.getName() + " WHERE active == true");
+        checkAggregates(Query.JDOQL, "SELECT sum(price), min(price), max(price), avg(price), sum(weight), min(weight), max(weight), " +
+            "avg(weight) FROM " + Stock.class.getName());
+        checkAggregates(Query.JDOQL, "SELECT sum(stamp), min(stamp), max(stamp), avg(stamp), sum(rank), min(rank), max(rank) FROM " +
+            Stock.class.getName() + " WHERE quantity > 2");
+        checkAggregates(Query.JDOQL, "SELECT count(this), sum(quantity), avg(price) FROM " + SpecialStock.class.getName());
+        checkAggregates(Query.JDOQL, "SELECT count(this), sum(quantity), max(price) FROM " + Stock.class.getName() +
+            " WHERE quantity > 100");
+    }
+
+    @Test
+    public void testJDOQLGroupedAggregates()
+    {
+        checkAggregates(Query.JDOQL, "SELECT category, count(this), sum(quantity) FROM " + Stock.class.getName() + " GROUP BY category");
+        checkAggregates(Query.JDOQL, "SELECT active, category, max(price), avg(stamp), min(weight) FROM " + Stock.class.getName() +
+            " GROUP BY active, category");
+        checkAggregates(Query.JDOQL, "SELECT rank, quantity, count(this), sum(price) FROM " + Stock.class.getName() +
+            " WHERE quantity >= 2 GROUP BY rank, quantity");
+        checkAggregates(Query.JDOQL, "SELECT count(this), category FROM " + Stock.class.getName() +
+            " WHERE quantity > 100 GROUP BY category");
+    }
+
+    @Test
+    public void testJPQLAggregates()
+    {
+        String stock = Stock.class.getName();
+        checkAggregates(JPQL, "SELECT COUNT(s) FROM " + stock + " s");
+        checkAggregates(JPQL, "SELECT COUNT(s), SUM(s.quantity), MIN(s.price), MAX(s.stamp), AVG(s.weight) FROM " + stock + " s " +
+            "WHERE s.active = true");
+        checkAggregates(JPQL, "SELECT s.category, COUNT(s), SUM(s.price), AVG(s.quantity) FROM " + stock + " s GROUP BY s.category");
+        checkAggregates(JPQL, "SELECT s.active, s.rank, MAX(s.quantity) FROM " + stock + " s WHERE s.quantity < 5 " +
+            "GROUP BY s.active, s.rank");
+    }
+
+    @Test
+    public void testNullValueLeftToInMemoryEvaluation()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertNull(executeFromXML(pm.newQuery(Query.JDOQL, "SELECT sum(reorderLevel) FROM " + Stock.class.getName())));
+            assertNull(executeFromXML(pm.newQuery(Query.JDOQL, "SELECT reorderLevel, count(this) FROM " + Stock.class.getName() +
+                " GROUP BY reorderLevel")));
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Check that the query is evaluated from the XML, and that its results are the same as those of the in-memory evaluation.
+     * @param language The query language
+     * @param queryString The query
+     */
+    private void checkAggregates(String language, String queryString)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Collection<?> xmlResults = executeFromXML(pm.newQuery(language, queryString));
+            assertNotNull("Query should be evaluated from the XML : " + queryString, xmlResults);
+
+            // The same query with the candidates supplied is evaluated in-memory. A query of aggregates without grouping
+            // returns the single row itself
+            Query inMemoryQuery = pm.newQuery(language, queryString);
+            inMemoryQuery.setCandidates(getCandidates(pm, inMemoryQuery));
+            Object inMemoryResult = inMemoryQuery.execute();
+            List<?> inMemoryResults = (inMemoryResult instanceof Collection) ?
+                new ArrayList<>((Collection<?>)inMemoryResult) : Collections.singletonList(inMemoryResult);
+
+            assertEquals("Number of rows for " + queryString, inMemoryResults.size(), xmlResults.size());
+            int rowNumber = 0;
+            for (Object xmlRow : xmlResults)
+            {
+                Object inMemoryRow = inMemoryResults.get(rowNumber);
+                Object[] xmlValues = (xmlRow instanceof Object[]) ? (Object[])xmlRow : new Object[] {xmlRow};
+                Object[] inMemoryValues = (inMemoryRow instanceof Object[]) ? (Object[])inMemoryRow : new Object[] {inMemoryRow};
+                assertEquals("Number of values in row " + rowNumber + " for " + queryString, inMemoryValues.length, xmlValues.length);
+                for (int i = 0; i < xmlValues.length; i++)
+                {
+                    String position = "value " + i + " of row " + rowNumber + " for " + queryString;
+                    assertEquals("Value of " + position, inMemoryValues[i], xmlValues[i]);
+                    assertEquals("Type of " + position, inMemoryValues[i] != null ? inMemoryValues[i].getClass() : null,
+                        xmlValues[i] != null ? xmlValues[i].getClass() : null);
+                }
+                rowNumber++;
+            }
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Method to evaluate the query using XMLAggregateEvaluator, in the same way as the query execution does.
+     * @param query The query
+     * @return The results, or null if not evaluated from the XML
+     */
+    private Collection<?> executeFromXML(Query query)
+    {
+        org.datanucleus.store.query.Query internalQuery = ((JDOQuery)query).getInternalQuery();
+        internalQuery.compile();
+        ExecutionContext ec = internalQuery.getExecutionContext();
+        ClassLoaderResolver clr = ec.getClassLoaderResolver();
+        ManagedConnection mconn = ec.getStoreManager().getConnectionManager().getConnection(ec);
+        try
+        {
+            QueryCompilation compilation = internalQuery.getCompilation();
+            XMLCandidateList candidates = new XMLCandidateList(compilation.getCandidateClass(), internalQuery.isSubclasses(), ec, null,
+                mconn, internalQuery.getIgnoreCache(), new QueryToXPathMapper(compilation, null, clr));
+            return new XMLAggregateEvaluator(internalQuery, compilation, clr).execute(candidates);
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Accessor for all objects of the candidate class of the query (and its subclasses).
+     * @param pm PersistenceManager
+     * @param query The query
+     * @return The objects
+     */
+    private static List<Object> getCandidates(PersistenceManager pm, Query query)
+    {
+        org.datanucleus.store.query.Query internalQuery = ((JDOQuery)query).getInternalQuery();
+        internalQuery.compile();
+        List<Object> candidates = new ArrayList<>();
+        for (Object obj : pm.getExtent(internalQuery.getCompilation().getCandidateClass(), true))
+        {
+            candidates.add(obj);
+        }
+        return candidates;
+    }
+}
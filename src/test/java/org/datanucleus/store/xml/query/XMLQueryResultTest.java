@@ -0,0 +1,244 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import org.datanucleus.store.xml.samples.Stock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link XMLQueryResult}, the results of a query read as they are accessed, and their loading when the connection
+ * they were executed with is closed.
+ */
+public class XMLQueryResultTest
+{
+    private static final int NUM_OBJECTS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    PersistenceManagerFactory pmf;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("javax.jdo.PersistenceManagerFactoryClass", "org.datanucleus.api.jdo.JDOPersistenceManagerFactory");
+        props.setProperty("javax.jdo.option.ConnectionURL", "xml:file:" + folder.newFile("stock.xml").getAbsolutePath());
+        props.setProperty("datanucleus.cache.level2.type", "none");
+        props.setProperty("datanucleus.xml.query.streaming", "true");
+        pmf = JDOHelper.getPersistenceManagerFactory(props);
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            for (int i = 0; i < NUM_OBJECTS; i++)
+            {
+                pm.makePersistent(new Stock("s" + i, "tools", i % 2 == 0, i, i, (short)0, 0.5 * i, 0.0f, null));
+            }
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+    }
+
+    @Test
+    public void testNonTransactionalResultsLoadedOnExecute()
+    {
+        checkNonTransactionalResultsLoaded(null, NUM_OBJECTS);
+        checkNonTransactionalResultsLoaded("quantity >= 5", NUM_OBJECTS - 5);
+
+        // Part of the filter (the double comparison) not evaluated from the XML, so evaluated on each candidate as it is read
+        checkNonTransactionalResultsLoaded("quantity >= 5 && price < 7.0", 9);
+    }
+
+    @Test
+    public void testTransactionalResultsLoadedAtCommit()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            XMLQueryResult<?> results = execute(pm, "quantity >= 5");
+            assertNull("Results should only be read as they are accessed", results.loadedResults);
+            assertEquals("s5", getIds(results).get(0));
+            tx.commit();
+
+            assertNotNull("Results should be loaded when the connection is closed", results.loadedResults);
+            assertEquals(NUM_OBJECTS - 5, results.size());
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testFilterEvaluatedOnEachCandidate()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            List<String> expected = Arrays.asList("s6", "s8", "s10", "s12");
+
+            Query<Stock> query = pm.newQuery(Stock.class, "quantity > 5 && active == true && price < 7.0");
+            assertEquals(expected, getIds(asStreamed(query.execute())));
+
+            Query<?> jpqlQuery = pm.newQuery("javax.jdo.query.JPQL", "SELECT s FROM " + Stock.class.getName() +
+                " s WHERE s.quantity > 5 AND s.active = true AND s.price < 7.0");
+            assertEquals(expected, getIds(asStreamed(jpqlQuery.execute())));
+
+            // With a range
+            query = pm.newQuery(Stock.class, "quantity > 5 && active == true && price < 7.0");
+            query.setRange(1, 3);
+            assertEquals(expected.subList(1, 3), getIds(asStreamed(query.execute())));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    private void checkNonTransactionalResultsLoaded(String filter, int numResults)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            XMLQueryResult<?> results = execute(pm, filter);
+            assertNotNull("Results should be loaded when the connection is released after execution", results.loadedResults);
+
+            // Changing the objects doesn't change the results already loaded
+            PersistenceManager otherPm = pmf.getPersistenceManager();
+            Transaction tx = otherPm.currentTransaction();
+            try
+            {
+                tx.begin();
+                otherPm.deletePersistent(otherPm.getObjectById(Stock.class, "s5"));
+                tx.commit();
+            }
+            finally
+            {
+                if (tx.isActive())
+                {
+                    tx.rollback();
+                }
+                otherPm.close();
+            }
+
+            List<String> ids = getIds(results);
+            assertEquals(numResults, ids.size());
+            assertTrue(ids.contains("s5"));
+        }
+        finally
+        {
+            pm.close();
+        }
+
+        // Restore the deleted object for the next check
+        PersistenceManager restorePm = pmf.getPersistenceManager();
+        Transaction tx = restorePm.currentTransaction();
+        try
+        {
+            tx.begin();
+            restorePm.makePersistent(new Stock("s5", "tools", false, 5, 5, (short)0, 2.5, 0.0f, null));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            restorePm.close();
+        }
+    }
+
+    private static XMLQueryResult<?> execute(PersistenceManager pm, String filter)
+    {
+        Query<Stock> query = pm.newQuery(Stock.class);
+        if (filter != null)
+        {
+            query.setFilter(filter);
+        }
+        return asStreamed(query.execute());
+    }
+
+    private static XMLQueryResult<?> asStreamed(Object results)
+    {
+        assertTrue("Query should be executed with streamed results", results instanceof XMLQueryResult);
+        return (XMLQueryResult<?>)results;
+    }
+
+    private static List<String> getIds(XMLQueryResult<?> results)
+    {
+        List<String> ids = new ArrayList<>();
+        for (Object result : results)
+        {
+            ids.add(((Stock)result).getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,97 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.samples;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Sample class with members of the types that a query filter can be evaluated on from the XML, including members that can be
+ * null (so are absent from the XML).
+ */
+@PersistenceCapable(schema="/inventory/items")
+public class Item
+{
+    public enum Status
+    {
+        ACTIVE, SUSPENDED, RETIRED
+    }
+
+    @PrimaryKey
+    String id;
+
+    String name;
+
+    String description;
+
+    int quantity;
+
+    long code;
+
+    short size;
+
+    double price;
+
+    boolean active;
+
+    Boolean featured;
+
+    Integer rating;
+
+    Status status;
+
+    public Item()
+    {
+    }
+
+    public Item(String id, String name, String description, int quantity, long code, short size, double price, boolean active,
+            Boolean featured, Integer rating, Status status)
+    {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.quantity = quantity;
+        this.code = code;
+        this.size = size;
+        this.price = price;
+        this.active = active;
+        this.featured = featured;
+        this.rating = rating;
+        this.status = status;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getQuantity()
+    {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity)
+    {
+        this.quantity = quantity;
+    }
+}
@@ -0,0 +1,43 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.samples;
+
+import javax.jdo.annotations.Inheritance;
+import javax.jdo.annotations.InheritanceStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+
+/**
+ * Sample subclass of {@link Stock}, stored in its own container element.
+ */
+@PersistenceCapable(schema="/stock/specials")
+@Inheritance(strategy=InheritanceStrategy.COMPLETE_TABLE)
+public class SpecialStock extends Stock
+{
+    String offer;
+
+    public SpecialStock()
+    {
+    }
+
+    public SpecialStock(String id, String category, boolean active, int quantity, long stamp, short rank, double price,
+            float weight, Integer reorderLevel, String offer)
+    {
+        super(id, category, active, quantity, stamp, rank, price, weight, reorderLevel);
+        this.offer = offer;
+    }
+}
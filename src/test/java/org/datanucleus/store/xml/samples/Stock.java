@@ -0,0 +1,73 @@
+/**********************************************************************
+Copyright (c) 2026 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.xml.samples;
+
+import javax.jdo.annotations.Inheritance;
+import javax.jdo.annotations.InheritanceStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Sample class with members of the types that aggregates can be evaluated on from the XML.
+ */
+@PersistenceCapable(schema="/stock/items")
+@Inheritance(strategy=InheritanceStrategy.COMPLETE_TABLE)
+public class Stock
+{
+    @PrimaryKey
+    String id;
+
+    String category;
+
+    boolean active;
+
+    int quantity;
+
+    long stamp;
+
+    short rank;
+
+    double price;
+
+    float weight;
+
+    Integer reorderLevel;
+
+    public Stock()
+    {
+    }
+
+    public Stock(String id, String category, boolean active, int quantity, long stamp, short rank, double price, float weight,
+            Integer reorderLevel)
+    {
+        this.id = id;
+        this.category = category;
+        this.active = active;
+        this.quantity = quantity;
+        this.stamp = stamp;
+        this.rank = rank;
+        this.price = price;
+        this.weight = weight;
+        this.reorderLevel = reorderLevel;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+}